@@ -0,0 +1,121 @@
+package org.apache.sling.dynamic.aem;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of Deflaters (with the configured Compression Level), Inflaters and their buffers
+ * so that a request does not allocate the native zlib state and the buffers again. Both
+ * Deflater and Inflater are raw (no zlib wrapper) as the GZip framing is done separately.
+ *
+ * Released instances are reset and kept up to the maximum number of idle instances, any
+ * other instance is ended right away. After the pool is closed (because the configuration
+ * changed) everything released to it is ended as well. An instance that is never released
+ * (the request failed) is left to the garbage collector.
+ */
+class CompressionPool {
+
+    /** Size of the buffers: large enough to (de)compress a Components List in a few rounds **/
+    public static final int BUFFER_SIZE = 32 * 1024;
+    public static final int DEFAULT_MAXIMUM_IDLE = 16;
+
+    private final int level;
+    private final int maximumIdle;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleDeflaters = new AtomicInteger();
+    private final AtomicInteger idleInflaters = new AtomicInteger();
+    private final AtomicInteger idleBuffers = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param level Compression Level of the Deflaters (-1 for the default or 0 to 9)
+     * @param maximumIdle Maximum number of idle instances of each kind, 0 disables the pooling
+     * @throws IllegalArgumentException If the Compression Level is invalid
+     */
+    CompressionPool(int level, int maximumIdle) {
+        if(level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression Level must be between -1 and 9: " + level);
+        }
+        this.level = level;
+        this.maximumIdle = maximumIdle;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    Deflater acquireDeflater() {
+        Deflater answer = deflaters.poll();
+        if(answer == null) {
+            return new Deflater(level, true);
+        }
+        idleDeflaters.decrementAndGet();
+        return answer;
+    }
+
+    void releaseDeflater(Deflater deflater) {
+        if(!closed && idleDeflaters.incrementAndGet() <= maximumIdle) {
+            deflater.reset();
+            deflaters.offer(deflater);
+        } else {
+            idleDeflaters.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    Inflater acquireInflater() {
+        Inflater answer = inflaters.poll();
+        if(answer == null) {
+            return new Inflater(true);
+        }
+        idleInflaters.decrementAndGet();
+        return answer;
+    }
+
+    void releaseInflater(Inflater inflater) {
+        if(!closed && idleInflaters.incrementAndGet() <= maximumIdle) {
+            inflater.reset();
+            inflaters.offer(inflater);
+        } else {
+            idleInflaters.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    /** @return Buffer of {@link #BUFFER_SIZE} bytes with undefined content **/
+    byte[] acquireBuffer() {
+        byte[] answer = buffers.poll();
+        if(answer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        idleBuffers.decrementAndGet();
+        return answer;
+    }
+
+    void releaseBuffer(byte[] buffer) {
+        if(!closed && idleBuffers.incrementAndGet() <= maximumIdle) {
+            buffers.offer(buffer);
+        } else {
+            idleBuffers.decrementAndGet();
+        }
+    }
+
+    /** Ends all idle instances. Instances in use are ended when they are released **/
+    void close() {
+        closed = true;
+        Deflater deflater;
+        while((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+        buffers.clear();
+    }
+}
@@ -0,0 +1,171 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.wrappers.SlingHttpServletRequestWrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Request Wrapper that hands the upstream Components List only the conditions it can
+ * evaluate on its own. The Dynamic Components part of an Entity Tag is removed from
+ * If-None-Match and a condition is dropped entirely if the Dynamic Components changed
+ * since the client got its copy. If the upstream then answers with a 304 the combined
+ * response is unchanged as well.
+ */
+class ConditionalRequestWrapper extends SlingHttpServletRequestWrapper {
+
+    static final String IF_NONE_MATCH = "If-None-Match";
+    static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    static final String ETAG = "ETag";
+    static final String LAST_MODIFIED = "Last-Modified";
+
+    private static final String WEAK_PREFIX = "W/";
+    private static final String ANY = "*";
+
+    private final String ifNoneMatch;
+    private final boolean dropIfModifiedSince;
+
+    /**
+     * @param request Request to be wrapped
+     * @param validator Validator of the current Dynamic Components
+     * @param lastModified Time the Dynamic Components last changed in milliseconds
+     */
+    ConditionalRequestWrapper(SlingHttpServletRequest request, String validator, long lastModified) {
+        super(request);
+        this.ifNoneMatch = strip(request.getHeader(IF_NONE_MATCH), validator);
+        long ifModifiedSince = -1;
+        try {
+            ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            // An invalid date is ignored by the upstream as well
+        }
+        // HTTP Dates only have a precision of seconds
+        this.dropIfModifiedSince = ifModifiedSince >= 0 && lastModified / 1000 > ifModifiedSince / 1000;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        if(IF_NONE_MATCH.equalsIgnoreCase(name)) {
+            return ifNoneMatch;
+        }
+        if(dropIfModifiedSince && IF_MODIFIED_SINCE.equalsIgnoreCase(name)) {
+            return null;
+        }
+        return super.getHeader(name);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Enumeration getHeaders(String name) {
+        if(IF_NONE_MATCH.equalsIgnoreCase(name)) {
+            return ifNoneMatch == null ? Collections.enumeration(Collections.emptyList()) : Collections.enumeration(Collections.singletonList(ifNoneMatch));
+        }
+        if(dropIfModifiedSince && IF_MODIFIED_SINCE.equalsIgnoreCase(name)) {
+            return Collections.enumeration(Collections.emptyList());
+        }
+        return super.getHeaders(name);
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        if(dropIfModifiedSince && IF_MODIFIED_SINCE.equalsIgnoreCase(name)) {
+            return -1;
+        }
+        return super.getDateHeader(name);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Enumeration getHeaderNames() {
+        List<String> answer = new ArrayList<>();
+        Enumeration names = super.getHeaderNames();
+        while(names != null && names.hasMoreElements()) {
+            String name = names.nextElement().toString();
+            if(IF_NONE_MATCH.equalsIgnoreCase(name)) {
+                if(ifNoneMatch == null) {
+                    continue;
+                }
+            } else if(dropIfModifiedSince && IF_MODIFIED_SINCE.equalsIgnoreCase(name)) {
+                continue;
+            }
+            answer.add(name);
+        }
+        return Collections.enumeration(answer);
+    }
+
+    /**
+     * @param upstreamEntityTag Entity Tag of the upstream response (quoted and maybe weak)
+     * @param validator Validator of the current Dynamic Components
+     * @return Entity Tag of the combined response
+     */
+    static String combine(String upstreamEntityTag, String validator) {
+        String tag = upstreamEntityTag.trim();
+        String prefix = "";
+        if(tag.startsWith(WEAK_PREFIX)) {
+            prefix = WEAK_PREFIX;
+            tag = tag.substring(WEAK_PREFIX.length());
+        }
+        if(tag.length() >= 2 && tag.charAt(0) == '"' && tag.charAt(tag.length() - 1) == '"') {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        return prefix + '"' + tag + '-' + validator + '"';
+    }
+
+    /** @return Weak form of the given Entity Tag **/
+    static String weak(String entityTag) {
+        return entityTag.startsWith(WEAK_PREFIX) ? entityTag : WEAK_PREFIX + entityTag;
+    }
+
+    /**
+     * @param ifNoneMatch Value of the If-None-Match header
+     * @param entityTag Entity Tag of the current response
+     * @return True if one of the given tags matches the Entity Tag with the weak comparison
+     */
+    static boolean matches(String ifNoneMatch, String entityTag) {
+        if(ifNoneMatch.trim().equals(ANY)) {
+            return true;
+        }
+        String opaque = opaque(entityTag);
+        for(String tag: ifNoneMatch.split(",")) {
+            if(opaque(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String entityTag) {
+        String answer = entityTag.trim();
+        return answer.startsWith(WEAK_PREFIX) ? answer.substring(WEAK_PREFIX.length()) : answer;
+    }
+
+    /**
+     * @param ifNoneMatch Value of the If-None-Match header or null
+     * @param validator Validator of the current Dynamic Components
+     * @return Upstream Entity Tags of the given ones that were combined with the current
+     * validator or null if there are none
+     */
+    static String strip(String ifNoneMatch, String validator) {
+        if(ifNoneMatch == null) {
+            return null;
+        }
+        if(ifNoneMatch.trim().equals(ANY)) {
+            return ANY;
+        }
+        String suffix = '-' + validator + '"';
+        StringBuilder answer = new StringBuilder();
+        for(String tag: ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if(tag.endsWith(suffix)) {
+                if(answer.length() > 0) {
+                    answer.append(", ");
+                }
+                answer.append(tag, 0, tag.length() - suffix.length()).append('"');
+            }
+        }
+        return answer.length() == 0 ? null : answer.toString();
+    }
+}
@@ -1,18 +1,42 @@
 package org.apache.sling.dynamic.aem;
 
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+import org.apache.sling.dynamic.aem.SuperTypeCache.ResolvedType;
+import org.apache.sling.dynamic.common.DynamicComponentDiagnostics;
 import org.apache.sling.dynamic.common.DynamicComponentFilterNotifier;
+import org.apache.sling.dynamic.common.DynamicComponentMetrics;
+import org.apache.sling.dynamic.common.DynamicComponentServiceResolver;
 import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -20,43 +44,173 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
-import javax.servlet.WriteListener;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static org.apache.sling.dynamic.common.Constants.SLING_RESOURCE_SUPER_TYPE_PROPERTY;
 
 @Component(
     name = "Dynamic Component Filter",
     immediate = true,
+    // Registered by its class as well so that the Dynamic Component List Servlet can share the Registry
+    service = {Filter.class, DynamicComponentFilterNotifier.class, ResourceChangeListener.class, DynamicComponentFilter.class},
     property = {
         Constants.SERVICE_DESCRIPTION + "=" + "Filter to add Dynamic Components to the Components List",
         "service.ranking" + "=" + "100",
         "sling.filter.pattern" + "=" + "/libs/wcm/core/content/components.*",
-        "sling.filter.scope" + "=" + "COMPONENT"
+        "sling.filter.scope" + "=" + "COMPONENT",
+        ResourceChangeListener.PATHS + "=" + "/apps",
+        ResourceChangeListener.PATHS + "=" + "/libs"
     }
 )
+@Designate(ocd = DynamicComponentFilter.Configuration.class)
 public class DynamicComponentFilter
-    implements Filter, DynamicComponentFilterNotifier
+    implements Filter, DynamicComponentFilterNotifier, ResourceChangeListener
 {
+    @ObjectClassDefinition(
+        name = "Dynamic Component Filter",
+        description = "Configuration of the Filter that adds the Dynamic Components to the Components List")
+    public @interface Configuration {
+        @AttributeDefinition(
+            name = "Diagnostic Mode",
+            description="Logging of single requests: 'off' (default), 'sample' (every n-th request) or 'trace' (every request). Can be changed at runtime")
+        String dynamic_component_diagnostic_mode() default "off";
+        @AttributeDefinition(
+            name = "Diagnostic Sample Rate",
+            description="In the 'sample' Diagnostic Mode every n-th request is logged")
+        int dynamic_component_diagnostic_sample_rate() default DynamicComponentDiagnostics.DEFAULT_SAMPLE_RATE;
+        @AttributeDefinition(
+            name = "Response Cache Size",
+            description="Maximum number of bytes of the cached Components Lists (shared by users with the same groups), 0 disables the cache")
+        long dynamic_component_response_cache_size() default ResponseCache.DEFAULT_MAXIMUM_BYTES;
+        @AttributeDefinition(
+            name = "Response Cache Time To Live",
+            description="Seconds a cached Components List is served. Limits how long a permission change goes unnoticed")
+        long dynamic_component_response_cache_ttl() default ResponseCache.DEFAULT_TIME_TO_LIVE;
+        @AttributeDefinition(
+            name = "Compression Level",
+            description="Level a compressed Components List is compressed again with: -1 (default of Deflate), 1 (fastest) to 9 (smallest)")
+        int dynamic_component_compression_level() default Deflater.DEFAULT_COMPRESSION;
+        @AttributeDefinition(
+            name = "Compression Mode",
+            description="'preserve' (default) keeps the encoding of the upstream, 'negotiate' only compresses if the client accepts gzip")
+        String dynamic_component_compression_mode() default COMPRESSION_PRESERVE;
+        @AttributeDefinition(
+            name = "Client Merge",
+            description="Serve the Dynamic Components through the Dynamic Component List Servlet so that editors with the merge hook " +
+                "get the Components List untouched. Requests without the hook are still spliced")
+        boolean dynamic_component_client_merge() default false;
+    }
+
+    public static final String COMPRESSION_PRESERVE = "preserve";
+    public static final String COMPRESSION_NEGOTIATE = "negotiate";
+    /** Header the merge hook sends with the Components List request **/
+    public static final String CLIENT_MERGE_HEADER = "X-Dynamic-Components";
+    public static final String CLIENT_MERGE = "merge";
+
     public static final Logger LOGGER = LoggerFactory.getLogger(DynamicComponentFilter.class);
 
-    private Map<String,PropertyHierarchy> dynamicToProvideComponents = new HashMap<>();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String GET = "GET";
+    /** Typical size of a JSon entry in bytes used to size the buffer upfront **/
+    private static final int ESTIMATED_ENTRY_SIZE = 192;
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String GZIP = "gzip";
+    private static final String SET_COOKIE = "Set-Cookie";
+    static final String CONTENT_ENCODING = "Content-Encoding";
+    static final String VARY = "Vary";
+    /** Headers of the Components List that are replayed from the Response Cache **/
+    private static final String[] CACHED_HEADERS = {
+        CONTENT_ENCODING, ConditionalRequestWrapper.ETAG, ConditionalRequestWrapper.LAST_MODIFIED, "Cache-Control", VARY
+    };
+
+    /** Registry of the Dynamic Components that is replaced as a whole on every change **/
+    private final AtomicReference<Registry> dynamicToProvideComponents = new AtomicReference<>(
+        new Registry(Collections.<String, PropertyHierarchy>emptyMap(), 0, false, null)
+    );
+    /** Merged Properties of the Super Types shared by all Dynamic Components **/
+    private final SuperTypeCache superTypeCache = new SuperTypeCache();
+    private final DynamicComponentDiagnostics diagnostics = new DynamicComponentDiagnostics();
+    /** Final Components Lists by the fingerprint of the user's groups, replaced on every configuration change **/
+    private volatile ResponseCache responseCache = new ResponseCache(0, 0);
+    /** Inflaters and Deflaters of the splice, replaced when the Compression Level changes **/
+    private volatile CompressionPool compressionPool = new CompressionPool(Deflater.DEFAULT_COMPRESSION, CompressionPool.DEFAULT_MAXIMUM_IDLE);
+    private volatile boolean negotiateCompression;
+    private volatile boolean clientMerge;
+
+    /** The Metrics are optional so that the Filter works without the Core Bundle **/
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile DynamicComponentMetrics metrics;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    /** Resolves the changed Super Types. Never used with the requesting user's session **/
+    private volatile DynamicComponentServiceResolver serviceResolver;
 
     public DynamicComponentFilter() {
         LOGGER.info("DC Filter created");
     }
 
+    @Activate
+    @Modified
+    private void activate(Configuration configuration) {
+        if(serviceResolver == null) {
+            serviceResolver = new DynamicComponentServiceResolver(resourceResolverFactory, DynamicComponentServiceResolver.INDEX_SUBSERVICE);
+        }
+        diagnostics.configure(configuration.dynamic_component_diagnostic_mode(), configuration.dynamic_component_diagnostic_sample_rate());
+        LOGGER.info("Diagnostic Mode: '{}', Sample Rate: '{}'", diagnostics.getMode(), diagnostics.getSampleRate());
+        responseCache = new ResponseCache(
+            configuration.dynamic_component_response_cache_size(), configuration.dynamic_component_response_cache_ttl()
+        );
+        LOGGER.info(
+            "Response Cache Size: '{}', Time To Live: '{}'",
+            configuration.dynamic_component_response_cache_size(), configuration.dynamic_component_response_cache_ttl()
+        );
+        int level = configuration.dynamic_component_compression_level();
+        if(level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            LOGGER.warn("Compression Level: '{}' is invalid, use the default", level);
+            level = Deflater.DEFAULT_COMPRESSION;
+        }
+        if(level != compressionPool.getLevel()) {
+            CompressionPool previous = compressionPool;
+            compressionPool = new CompressionPool(level, CompressionPool.DEFAULT_MAXIMUM_IDLE);
+            previous.close();
+        }
+        String mode = configuration.dynamic_component_compression_mode();
+        if(!COMPRESSION_PRESERVE.equals(mode) && !COMPRESSION_NEGOTIATE.equals(mode)) {
+            LOGGER.warn("Compression Mode: '{}' is unknown, use: '{}'", mode, COMPRESSION_PRESERVE);
+        }
+        negotiateCompression = COMPRESSION_NEGOTIATE.equals(mode);
+        LOGGER.info("Compression Level: '{}', Negotiate Compression: '{}'", level, negotiateCompression);
+        clientMerge = configuration.dynamic_component_client_merge();
+        LOGGER.info("Client Merge: '{}'", clientMerge);
+    }
+
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         LOGGER.info("DC Filter Initialized: '{}'", filterConfig);
@@ -64,7 +218,6 @@ public class DynamicComponentFilter
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
-        LOGGER.info("DC Filter called");
         // Wrap the Response to catch the output so that we can later add out part to the output
         if (request instanceof SlingHttpServletRequest && response instanceof SlingHttpServletResponse) {
             // Only support JSon request
@@ -75,51 +228,69 @@ public class DynamicComponentFilter
                 requestPathInfo.getResourcePath().equals("/libs/wcm/core/content/components") &&
                 requestPathInfo.getExtension().equalsIgnoreCase("json")
             ) {
-                final SpoolServletOutputStream outputStream = new SpoolServletOutputStream();
-                final SlingHttpServletResponseWrapper wrapper = new SlingHttpServletResponseWrapper(httpResponse) {
-                    @Override
-                    public ServletOutputStream getOutputStream() throws IOException {
-                        LOGGER.info("Get Output Stream: '{}'", outputStream);
-                        return outputStream;
+                if(clientMerge) {
+                    // The body depends on whether the merge hook asked for it
+                    httpResponse.addHeader(VARY, CLIENT_MERGE_HEADER);
+                    if(CLIENT_MERGE.equals(httpRequest.getHeader(CLIENT_MERGE_HEADER))) {
+                        if(diagnostics.isTraced()) {
+                            LOGGER.info("Components List passed through for the client merge");
+                        }
+                        chain.doFilter(request, response);
+                        return;
                     }
-
-                    @Override
-                    public PrintWriter getWriter() throws IOException {
-                        LOGGER.info("Get Output Writer: '{}'", outputStream.getWriter());
-                        return outputStream.getWriter();
+                }
+                // Splice the Dynamic Components into the upstream output while it is written
+                Registry registry = getRegistry();
+                ResponseCache cache = responseCache;
+                String cacheKey = cache.isEnabled() ? getCacheKey(httpRequest, cache) : null;
+                if(cacheKey != null) {
+                    ResponseCache.Entry cached = cache.get(cacheKey, registry.getVersion());
+                    DynamicComponentMetrics currentMetrics = metrics;
+                    if(currentMetrics != null) {
+                        currentMetrics.recordResponseCache(cached != null);
                     }
-
-                    @Override
-                    public void setContentLength(int len) {
-                        // Ignore this
-                        LOGGER.info("Ignored Content Length set to: {}", len);
-//                        super.setContentLength(len);
+                    if(cached != null) {
+                        serve(httpRequest, httpResponse, cached);
+                        if(diagnostics.isTraced()) {
+                            LOGGER.info(
+                                "Components List served from cache, registry version: '{}', cached: '{}' ({} bytes)",
+                                registry.getVersion(), cache.size(), cache.getBytes()
+                            );
+                        }
+                        return;
                     }
-
-                    @Override
-                    public void setContentLengthLong(long len) {
-                        // Ignore this
-                        LOGGER.info("Ignored Content Length Long set to: {}", len);
-//                        super.setContentLengthLong(len);
+                }
+                DynamicComponentsOutput output = registry.getOutput();
+                final SpliceResponseWrapper wrapper = new SpliceResponseWrapper(
+                    httpResponse, output, registry.getLastModified(), cacheKey != null ? cache.getMaximumEntrySize() : 0,
+                    compressionPool, !negotiateCompression || acceptsGzip(httpRequest)
+                );
+                // The upstream decides on a 304 with the conditions that still hold for the Dynamic Components
+                chain.doFilter(new ConditionalRequestWrapper(httpRequest, output.getValidator(), registry.getLastModified()), wrapper);
+                if(wrapper.isNotModified()) {
+                    if(diagnostics.isTraced()) {
+                        LOGGER.info("Components List not modified, registry version: '{}'", registry.getVersion());
+                    }
+                    return;
+                }
+                wrapper.finish();
+                if(cacheKey != null) {
+                    ResponseCache.Entry entry = wrapper.toCacheEntry(registry.getVersion());
+                    if(entry != null) {
+                        cache.put(cacheKey, entry);
                     }
-                };
-                chain.doFilter(request, wrapper);
-                // Get the Output, parse it into JSon
-                byte[] bytes = outputStream.toByteArray();
-                String content = decompress(bytes);
-                char last = content.charAt(content.length() - 1);
-                if(last == '}') {
-                    content = content.substring(0, content.length() - 1)
-                        + compileDynamicComponentsOutput(httpRequest.getResourceResolver())
-                        + "}";
-                    LOGGER.info("Content after Filter Chain: '{}'", content);
-                    byte[] output = compress(content);
-                    LOGGER.info("Compress Length: '{}'", output.length);
-                    response.getOutputStream().write(output);
-                    response.flushBuffer();
-                } else {
-                    LOGGER.info("Last Character is unexpected: '{}'", last);
-                    response.getOutputStream().write(content.getBytes());
+                }
+                response.flushBuffer();
+                DynamicComponentMetrics currentMetrics = metrics;
+                SpliceServletOutputStream spliced = wrapper.getSpliceStream();
+                if(currentMetrics != null && spliced != null) {
+                    currentMetrics.recordSplice(spliced.getSplicedBytes() - spliced.getUpstreamBytes(), spliced.getSpliceNanos());
+                }
+                if(diagnostics.isTraced()) {
+                    LOGGER.info(
+                        "Components List spliced, dynamic components: '{}', registry version: '{}'",
+                        registry.getComponents().size(), registry.getVersion()
+                    );
                 }
             } else {
                 chain.doFilter(request, response);
@@ -129,33 +300,293 @@ public class DynamicComponentFilter
         }
     }
 
-    private String compileDynamicComponentsOutput(ResourceResolver resourceResolver) {
-        String answer = "";
-        for(Entry<String,PropertyHierarchy> entry: dynamicToProvideComponents.entrySet()) {
-            String component = "";
+    /**
+     * Users with the same groups are given the same upstream Components List. A user with
+     * Access Control Entries of its own and an administrator are never shared. The groups
+     * are only read again once the fingerprint of the user expired.
+     *
+     * @param request Request of the Components List
+     * @param cache Response Cache that keeps the fingerprints
+     * @return Fingerprint of the user's groups and the request variant or null if it cannot be cached
+     */
+    static String getCacheKey(SlingHttpServletRequest request, ResponseCache cache) {
+        if(!GET.equals(request.getMethod())) {
+            return null;
+        }
+        Session session = request.getResourceResolver().adaptTo(Session.class);
+        if(!(session instanceof JackrabbitSession) || session.getUserID() == null) {
+            return null;
+        }
+        String fingerprint = cache.getFingerprint(session.getUserID());
+        if(fingerprint == null) {
+            fingerprint = getFingerprint((JackrabbitSession) session);
+            if(fingerprint == null) {
+                return null;
+            }
+            cache.putFingerprint(session.getUserID(), fingerprint);
+        }
+        RequestPathInfo requestPathInfo = request.getRequestPathInfo();
+        return fingerprint + '|' + requestPathInfo.getSelectorString() + '|' + requestPathInfo.getSuffix() + '|' +
+            request.getQueryString() + '|' + acceptsGzip(request);
+    }
+
+    /** @return Digest of the groups of the session's user or of the user itself if it cannot be shared, null if unknown **/
+    private static String getFingerprint(JackrabbitSession session) {
+        StringBuilder fingerprint = new StringBuilder();
+        try {
+            Authorizable authorizable = session.getUserManager().getAuthorizable(session.getUserID());
+            if(authorizable == null || authorizable.isGroup()) {
+                return null;
+            }
+            if(((User) authorizable).isAdmin()) {
+                fingerprint.append("admin:").append(authorizable.getID());
+            } else if(hasOwnEntries(session, authorizable)) {
+                // Direct (allow or deny) entries make the user's view differ from the one of its groups
+                fingerprint.append("user:").append(authorizable.getID());
+            } else {
+                Set<String> groups = new TreeSet<>();
+                Iterator<Group> i = authorizable.memberOf();
+                while(i.hasNext()) {
+                    groups.add(i.next().getID());
+                }
+                for(String group: groups) {
+                    fingerprint.append(group).append('\n');
+                }
+            }
+        } catch (RepositoryException e) {
+            LOGGER.debug("Cannot obtain the groups of: '{}', not cached", session.getUserID(), e);
+            return null;
+        }
+        return digest(fingerprint.toString());
+    }
+
+    /** @return True if the user has Access Control Entries of its own or if that cannot be told **/
+    private static boolean hasOwnEntries(Session session, Authorizable user) {
+        try {
+            AccessControlManager accessControlManager = session.getAccessControlManager();
+            if(!(accessControlManager instanceof JackrabbitAccessControlManager)) {
+                return true;
+            }
+            return ((JackrabbitAccessControlManager) accessControlManager).getEffectivePolicies(
+                Collections.singleton(user.getPrincipal())
+            ).length > 0;
+        } catch (RepositoryException e) {
+            LOGGER.debug("Cannot obtain the entries of: '{}', not shared", session.getUserID(), e);
+            return true;
+        }
+    }
+
+    static boolean acceptsGzip(SlingHttpServletRequest request) {
+        return acceptsGzip(request.getHeader(ACCEPT_ENCODING));
+    }
+
+    /**
+     * @param acceptEncoding Value of the Accept Encoding header, may be null
+     * @return True if gzip is accepted with a quality above 0 by name or, if not named, by the wildcard
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if(acceptEncoding == null) {
+            return false;
+        }
+        float gzip = -1;
+        float wildcard = -1;
+        for(String token: acceptEncoding.split(",")) {
+            String[] parts = token.split(";");
+            String coding = parts[0].trim();
+            if(GZIP.equalsIgnoreCase(coding)) {
+                gzip = getQuality(parts);
+            } else if("*".equals(coding)) {
+                wildcard = getQuality(parts);
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : wildcard > 0;
+    }
+
+    /** @return Quality of the coding, 1 if not given and 0 if it is invalid **/
+    private static float getQuality(String[] parts) {
+        for(int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if(parameter.length() > 2 && Character.toLowerCase(parameter.charAt(0)) == 'q' && parameter.charAt(1) == '=') {
+                try {
+                    return Float.parseFloat(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /** @return Hex encoded SHA-256 digest of the given text so that the key size does not depend on the number of groups **/
+    private static String digest(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(UTF_8));
+            StringBuilder answer = new StringBuilder(hash.length * 2);
+            for(byte b: hash) {
+                answer.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return answer.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java Platform must support SHA-256
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Writes the cached Components List or a 304 if the client's copy is still current **/
+    private static void serve(SlingHttpServletRequest request, SlingHttpServletResponse response, ResponseCache.Entry cached) throws IOException {
+        String entityTag = cached.getHeader(ConditionalRequestWrapper.ETAG);
+        String ifNoneMatch = request.getHeader(ConditionalRequestWrapper.IF_NONE_MATCH);
+        boolean notModified;
+        if(ifNoneMatch != null) {
+            notModified = entityTag != null && ConditionalRequestWrapper.matches(ifNoneMatch, entityTag);
+        } else {
+            long ifModifiedSince = -1;
+            try {
+                ifModifiedSince = request.getDateHeader(ConditionalRequestWrapper.IF_MODIFIED_SINCE);
+            } catch (IllegalArgumentException e) {
+                // An invalid date is ignored
+            }
+            notModified = ifModifiedSince >= 0 && cached.getLastModified() >= 0 && cached.getLastModified() / 1000 <= ifModifiedSince / 1000;
+        }
+        for(Entry<String, List<String>> header: cached.getHeaders().entrySet()) {
+            if(notModified && header.getKey().equalsIgnoreCase(CONTENT_ENCODING)) {
+                continue;
+            }
+            // Set so that a header the Filter already added (like the Vary of the Client Merge) is not repeated
+            boolean first = true;
+            for(String value: header.getValue()) {
+                if(first) {
+                    response.setHeader(header.getKey(), value);
+                    first = false;
+                } else {
+                    response.addHeader(header.getKey(), value);
+                }
+            }
+        }
+        if(notModified) {
+            response.setStatus(SC_NOT_MODIFIED);
+            return;
+        }
+        if(cached.getContentType() != null) {
+            response.setContentType(cached.getContentType());
+        }
+        response.setContentLength(cached.getContent().length);
+        response.getOutputStream().write(cached.getContent());
+        response.flushBuffer();
+    }
+
+    /**
+     * Compiles the JSon entries of all Dynamic Components. Each entry is
+     * prefixed with a comma so that it can be appended to the upstream list.
+     * Properties that are not set are left out.
+     *
+     * @param components Dynamic Components by their Dynamic Path
+     * @return UTF-8 encoded JSon fragment of the Dynamic Components
+     */
+    static byte[] compileDynamicComponentsOutput(Map<String, PropertyHierarchy> components) {
+        JsonFragmentWriter writer = new JsonFragmentWriter(components.size() * ESTIMATED_ENTRY_SIZE);
+        for(Entry<String,PropertyHierarchy> entry: components.entrySet()) {
             String dynamicPath = entry.getKey();
             int index = dynamicPath.indexOf('/', 1);
             if(index <= 0) {
                 LOGGER.warn("Dynamic Path is not valid: '{}'", dynamicPath);
                 continue;
             }
-            component = "\"" + dynamicPath.substring(index + 1) + "\": {"
-                + "\"path\":\"" + dynamicPath + "\"";
+            String resourceType = dynamicPath.substring(index + 1);
             PropertyHierarchy propertyHierarchy = entry.getValue();
-            if(propertyHierarchy.containsKey("componentGroup")) {
-                component += ",\"group\":\"" + propertyHierarchy.get("componentGroup", "weird-group") + "\"";
+            writer.beginEntry(resourceType).property("path", dynamicPath);
+            String group = propertyHierarchy.get("componentGroup");
+            if(group != null) {
+                writer.property("group", group);
             }
-            if(propertyHierarchy.containsKey("jcr:title")) {
-                component += ",\"title\":\"" + propertyHierarchy.get("jcr:title", "weird-title") + "\"";
+            String title = propertyHierarchy.get("jcr:title");
+            if(title != null) {
+                writer.property("title", title);
             }
-            component += ",\"resourceType\":\"" + dynamicPath.substring(index + 1) + "\"";
-            if(propertyHierarchy.containsKey("cq:icon")) {
-                component += ",\"iconName\":\"" + propertyHierarchy.get("cq:icon", "weird-icon") + "\"";
+            writer.property("resourceType", resourceType);
+            String icon = propertyHierarchy.get("cq:icon");
+            if(icon != null) {
+                writer.property("iconName", icon);
             }
-            component += "}";
-            answer += "," + component;
+            writer.endEntry();
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Obtains the current Registry. If a Super Type of a component changed in the meantime
+     * then these components are resolved again with the Service Resource Resolver so that
+     * the shared Registry does not depend on the permissions of the requesting user
+     *
+     * @return Current Registry or the stale one if the Service Resource Resolver is not available
+     */
+    Registry getRegistry() {
+        final Registry current = dynamicToProvideComponents.get();
+        if(!current.isStale()) {
+            return current;
+        }
+        try {
+            return serviceResolver.execute(new DynamicComponentServiceResolver.Work<Registry>() {
+                @Override
+                public Registry execute(ResourceResolver resourceResolver) {
+                    // Another request might have refreshed it while this one waited for the Resource Resolver
+                    Registry latest = dynamicToProvideComponents.get();
+                    if(!latest.isStale()) {
+                        return latest;
+                    }
+                    Map<String, PropertyHierarchy> components = new LinkedHashMap<>();
+                    for(Entry<String, PropertyHierarchy> entry: latest.getComponents().entrySet()) {
+                        PropertyHierarchy propertyHierarchy = entry.getValue();
+                        if(!propertyHierarchy.isValid()) {
+                            propertyHierarchy = propertyHierarchy.refresh(superTypeCache, resourceResolver);
+                        }
+                        components.put(entry.getKey(), propertyHierarchy);
+                    }
+                    Registry next = new Registry(components, latest.getVersion() + 1, false, latest.getBaseline());
+                    // If another thread changed the Registry in the meantime the next request will try again
+                    dynamicToProvideComponents.compareAndSet(latest, next);
+                    return next;
+                }
+            });
+        } catch (LoginException e) {
+            LOGGER.warn("Was not able to obtain Service Resource Resolver, use stale Registry", e);
+            return current;
+        }
+    }
+
+    /** @return True if the Dynamic Components are served separately for the client merge **/
+    boolean isClientMerge() {
+        return clientMerge;
+    }
+
+    CompressionPool getCompressionPool() {
+        return compressionPool;
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        // The upstream Components List might have changed as well
+        responseCache.clear();
+        boolean invalidated = false;
+        for(ResourceChange change: changes) {
+            invalidated |= superTypeCache.invalidate(change.getPath());
+        }
+        if(invalidated) {
+            Registry current, next;
+            do {
+                current = dynamicToProvideComponents.get();
+                next = new Registry(current.getComponents(), current.getVersion() + 1, true, current.getBaseline());
+            } while(!dynamicToProvideComponents.compareAndSet(current, next));
+        }
+    }
+
+    @Deactivate
+    private void deactivate() {
+        compressionPool.close();
+        if(serviceResolver != null) {
+            serviceResolver.close();
+            serviceResolver = null;
         }
-        return answer;
     }
 
     @Override
@@ -165,100 +596,549 @@ public class DynamicComponentFilter
 
     @Override
     public void addDynamicComponent(String dynamicComponentPath, Resource providedComponent) {
-        PropertyHierarchy propertyHierarchy = new PropertyHierarchy(providedComponent);
-        dynamicToProvideComponents.put(dynamicComponentPath, propertyHierarchy);
+        addDynamicComponents(Collections.singletonMap(dynamicComponentPath, providedComponent));
     }
 
     @Override
     public void removeDynamicComponent(String dynamicComponentPath) {
-        dynamicToProvideComponents.remove(dynamicComponentPath);
+        removeDynamicComponents(Collections.singleton(dynamicComponentPath));
     }
 
-    private String decompress(byte[] content) throws IOException {
-        try (
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(content));
-        ) {
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = gzipInputStream.read(buffer)) > 0) {
-                baos.write(buffer, 0, len);
+    @Override
+    public void addDynamicComponents(Map<String, Resource> providedComponents) {
+        if(providedComponents.isEmpty()) {
+            return;
+        }
+        // Resolved once outside of the retry loop
+        Map<String, PropertyHierarchy> added = new LinkedHashMap<>();
+        for(Entry<String, Resource> entry: providedComponents.entrySet()) {
+            added.put(entry.getKey(), new PropertyHierarchy(entry.getValue(), superTypeCache));
+        }
+        Registry current, next;
+        do {
+            current = dynamicToProvideComponents.get();
+            Map<String, PropertyHierarchy> components = new LinkedHashMap<>(current.getComponents());
+            components.putAll(added);
+            next = new Registry(components, current.getVersion() + 1, current.isStale(), current.getBaseline());
+        } while(!dynamicToProvideComponents.compareAndSet(current, next));
+    }
+
+    @Override
+    public void removeDynamicComponents(Collection<String> dynamicComponentPaths) {
+        Registry current, next;
+        do {
+            current = dynamicToProvideComponents.get();
+            Map<String, PropertyHierarchy> components = new LinkedHashMap<>(current.getComponents());
+            if(!components.keySet().removeAll(dynamicComponentPaths)) {
+                return;
             }
-            baos.flush();
-            return baos.toString();
+            next = new Registry(components, current.getVersion() + 1, current.isStale(), current.getBaseline());
+        } while(!dynamicToProvideComponents.compareAndSet(current, next));
+    }
+
+    private static byte[] compress(byte[] content, CompressionPool compressionPool) throws IOException {
+        ByteArrayOutputStream answer = new ByteArrayOutputStream(content.length / 4 + 32);
+        try (PooledGzipOutputStream gzipOutputStream = new PooledGzipOutputStream(answer, compressionPool)) {
+            gzipOutputStream.write(content, 0, content.length);
         }
+        LOGGER.debug("Content Length: {}, compressed: {}", content.length, answer.size());
+        return answer.toByteArray();
     }
 
-    private byte[] compress(String content) throws IOException {
-        try (
-            ByteArrayOutputStream boas = new ByteArrayOutputStream();
-            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(boas);
-        ) {
-            byte[] bytes = content.getBytes();
-            int test = content.getBytes().length;
-            gzipOutputStream.write(bytes, 0, bytes.length);
-            LOGGER.debug("Content Length: {}", test);
-            gzipOutputStream.close();
-            return boas.toByteArray();
+    /**
+     * Immutable, pre-serialized Output of the Dynamic Components. It is
+     * compiled once per Registry so that a request can serve it without
+     * compiling or compressing it again.
+     * The compressed form is created on first use with the current
+     * Compression Level.
+     */
+    static class DynamicComponentsOutput {
+        private final byte[] fragment;
+        private final byte[] tail;
+        private final String validator;
+        private volatile Compressed compressedTail;
+        private volatile Compressed compressedDocument;
+
+        /** @param fragment UTF-8 encoded JSon fragment, it is kept and must not be modified afterwards **/
+        DynamicComponentsOutput(byte[] fragment) {
+            this.fragment = fragment;
+            // Derived from the content so that it is the same after a restart and on every instance
+            CRC32 checksum = new CRC32();
+            checksum.update(this.fragment);
+            this.validator = "dc" + Long.toHexString(checksum.getValue());
+            this.tail = Arrays.copyOf(this.fragment, this.fragment.length + 1);
+            this.tail[this.tail.length - 1] = '}';
+        }
+
+        /** @return UTF-8 encoded JSon fragment of the Dynamic Components (must not be modified) **/
+        byte[] getFragment() {
+            return fragment;
+        }
+
+        /** @return UTF-8 encoded JSon object with only the Dynamic Components **/
+        byte[] getDocument() {
+            // The fragment is empty or starts with the comma of its first entry
+            int start = fragment.length == 0 ? 0 : 1;
+            byte[] answer = new byte[fragment.length - start + 2];
+            answer[0] = '{';
+            System.arraycopy(fragment, start, answer, 1, fragment.length - start);
+            answer[answer.length - 1] = '}';
+            return answer;
+        }
+
+        /**
+         * @param compressionPool Pool with the current Compression Level
+         * @return GZip compressed JSon object with only the Dynamic Components (must not be modified)
+         */
+        byte[] getCompressedDocument(CompressionPool compressionPool) {
+            Compressed answer = compressedDocument;
+            if(answer == null || answer.level != compressionPool.getLevel()) {
+                answer = compress(getDocument(), compressionPool);
+                compressedDocument = answer;
+            }
+            return answer.content;
+        }
+
+        /**
+         * @param compressionPool Pool with the current Compression Level
+         * @return GZip member of the JSon fragment followed by the closing bracket (must not be modified)
+         */
+        byte[] getCompressedTail(CompressionPool compressionPool) {
+            Compressed answer = compressedTail;
+            if(answer == null || answer.level != compressionPool.getLevel()) {
+                // Concurrent requests might compress it more than once which is cheaper than locking
+                answer = compress(tail, compressionPool);
+                compressedTail = answer;
+            }
+            return answer.content;
+        }
+
+        private static Compressed compress(byte[] content, CompressionPool compressionPool) {
+            try {
+                return new Compressed(compressionPool.getLevel(), DynamicComponentFilter.compress(content, compressionPool));
+            } catch (IOException e) {
+                // Cannot happen as this is compressed in memory
+                throw new IllegalStateException("Failed to compress the Dynamic Components Output", e);
+            }
+        }
+
+        /** @return Validator of the Dynamic Components that is added to the upstream Entity Tag **/
+        String getValidator() {
+            return validator;
         }
     }
 
-    public static class SpoolServletOutputStream extends ServletOutputStream {
+    /** GZip compressed content together with the Compression Level it was compressed with **/
+    private static class Compressed {
+        private final int level;
+        private final byte[] content;
 
-        private final ByteArrayOutputStream output;
-        private final PrintWriter writer;
+        Compressed(int level, byte[] content) {
+            this.level = level;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the Dynamic Components together with their pre-serialized
+     * Output. Readers always see a consistent view without locking and writers publish
+     * a new snapshot atomically. The version is increased with every change.
+     *
+     * The Output is compiled when it is first read so that a series of changes (like
+     * the registration of all components of a Provider Folder) does not compile every
+     * intermediate snapshot.
+     *
+     * The Last Modified time is only moved forward if the compiled Output differs from the
+     * one of the last compiled Registry so that a change that does not alter the Output
+     * (like a refreshed Super Type Chain) does not invalidate the clients' copies.
+     */
+    static class Registry {
+        private final Map<String, PropertyHierarchy> components;
+        private final long version;
+        private final boolean stale;
+        private volatile DynamicComponentsOutput output;
+        private volatile long lastModified;
+        /** Last compiled Registry before this one, dropped once this one is compiled **/
+        private volatile Registry previous;
+
+        /**
+         * @param components Dynamic Components of this snapshot
+         * @param version Version of this snapshot
+         * @param stale True if the Super Type Chain of at least one of the components has changed
+         * @param previous Last compiled Registry whose Last Modified time is kept if the Output is the same or null
+         */
+        Registry(Map<String, PropertyHierarchy> components, long version, boolean stale, Registry previous) {
+            this.components = Collections.unmodifiableMap(components);
+            this.version = version;
+            this.stale = stale;
+            this.previous = previous;
+        }
+
+        /** @return Time the Output of the Dynamic Components last changed in milliseconds **/
+        long getLastModified() {
+            getOutput();
+            return lastModified;
+        }
+
+        /** @return This Registry if it is compiled otherwise the last compiled one before it (or this one if there is none) **/
+        Registry getBaseline() {
+            // The previous one is read first as it is dropped after the Output is set
+            Registry answer = previous;
+            return output != null || answer == null ? this : answer;
+        }
+
+        Map<String, PropertyHierarchy> getComponents() {
+            return components;
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        /** @return True if the Super Type Chain of at least one of the components has changed **/
+        boolean isStale() {
+            return stale;
+        }
 
-        public SpoolServletOutputStream()
-            throws UnsupportedEncodingException
-        {
-            this.output = new ByteArrayOutputStream();
-            this.writer = new PrintWriter(new OutputStreamWriter(output, "UTF-8"));
+        DynamicComponentsOutput getOutput() {
+            DynamicComponentsOutput answer = output;
+            if(answer == null) {
+                // Concurrent requests might compile it more than once which is cheaper than locking
+                answer = new DynamicComponentsOutput(compileDynamicComponentsOutput(components));
+                Registry baseline = previous;
+                DynamicComponentsOutput previousOutput = baseline == null ? null : baseline.output;
+                lastModified = previousOutput != null && previousOutput.getValidator().equals(answer.getValidator())
+                    ? baseline.lastModified
+                    : System.currentTimeMillis();
+                output = answer;
+                previous = null;
+            }
+            return answer;
         }
+    }
+
+    /**
+     * Response Wrapper that hands out a Splice Output Stream (or a Writer on top of it)
+     * instead of the response's Output Stream. The upstream validators are combined with
+     * the ones of the Dynamic Components and an upstream Content Length is increased by the
+     * length of the Dynamic Components unless the upstream content is encoded (compressed).
+     * A 304 of the upstream is passed on as is as there is nothing to splice. If the content
+     * is not compressed again its GZip encoding is removed and the Entity Tag becomes weak.
+     */
+    private static class SpliceResponseWrapper extends SlingHttpServletResponseWrapper {
+
+        private static final String CONTENT_LENGTH = "Content-Length";
+
+        private final DynamicComponentsOutput dynamicComponentsOutput;
+        private final long lastModified;
+        private SpliceServletOutputStream outputStream;
+        private PrintWriter writer;
+        private final CapturingOutputStream capture;
+        private final CompressionPool compressionPool;
+        private final boolean recompress;
+        private boolean encodingRemoved;
+        /** Content Length of the upstream held back until the content is written, -1 if there is none **/
+        private long upstreamLength = -1;
+        private boolean lengthDecided;
+        private boolean lengthDeclared;
+        private int status = SC_OK;
+        private long lastModifiedHeader = -1;
 
-        final PrintWriter getWriter() {
-            return this.writer;
+        /**
+         * @param response Response to be wrapped
+         * @param dynamicComponentsOutput Dynamic Components to be spliced in
+         * @param lastModified Time the Dynamic Components last changed in milliseconds
+         * @param captureLimit Maximum number of bytes to be captured for the Response Cache, 0 to not capture
+         * @param compressionPool Pool of the Inflaters and Deflaters
+         * @param recompress If false compressed upstream content is sent uncompressed
+         */
+        SpliceResponseWrapper(
+            SlingHttpServletResponse response, DynamicComponentsOutput dynamicComponentsOutput, long lastModified, long captureLimit,
+            CompressionPool compressionPool, boolean recompress
+        ) {
+            super(response);
+            this.dynamicComponentsOutput = dynamicComponentsOutput;
+            this.lastModified = lastModified;
+            this.capture = captureLimit > 0 ? new CapturingOutputStream(captureLimit) : null;
+            this.compressionPool = compressionPool;
+            this.recompress = recompress;
         }
 
         @Override
-        public void write(int b) throws IOException {
-            this.output.write(b);
+        public ServletOutputStream getOutputStream() throws IOException {
+            if(outputStream == null) {
+                OutputStream target = new FilterOutputStream(super.getOutputStream()) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        declareLength();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        declareLength();
+                        out.write(b, off, len);
+                    }
+                };
+                if(capture != null) {
+                    target = new TeeOutputStream(target, capture);
+                }
+                outputStream = new SpliceServletOutputStream(target, dynamicComponentsOutput, compressionPool, recompress);
+                if(lengthDeclared) {
+                    outputStream.setLengthDeclared();
+                }
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if(writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), UTF_8));
+            }
+            return writer;
         }
 
-        final byte[] toByteArray() {
-            this.writer.flush();
-            byte[] bytes = output.toByteArray();
-            return bytes;
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
         }
 
-        public final String toContent() {
-            this.writer.flush();
-            try {
-                return this.output.toString("UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                return "";
+        @Override
+        public void setContentLengthLong(long len) {
+            // The upstream might set the Content Encoding afterwards and so the length is only declared
+            // when the content is written. A length after that is ignored
+            if(len >= 0 && !lengthDecided) {
+                upstreamLength = len;
             }
         }
 
         @Override
-        public boolean isReady() {
-            return true;
+        public void flushBuffer() throws IOException {
+            declareLength();
+            super.flushBuffer();
+        }
+
+        /** Declares the Content Length including the Dynamic Components unless the content is encoded **/
+        private void declareLength() {
+            if(lengthDecided) {
+                return;
+            }
+            lengthDecided = true;
+            // An encoded length cannot be computed upfront
+            if(upstreamLength < 0 || encodingRemoved || containsHeader(CONTENT_ENCODING)) {
+                return;
+            }
+            lengthDeclared = true;
+            super.setContentLengthLong(upstreamLength + dynamicComponentsOutput.getFragment().length);
+            if(outputStream != null) {
+                outputStream.setLengthDeclared();
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if(!intercept(name, value)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if(!intercept(name, value)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            if(ConditionalRequestWrapper.LAST_MODIFIED.equalsIgnoreCase(name)) {
+                date = Math.max(date, lastModified);
+                lastModifiedHeader = date;
+            }
+            super.setDateHeader(name, date);
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            if(ConditionalRequestWrapper.LAST_MODIFIED.equalsIgnoreCase(name)) {
+                setDateHeader(name, date);
+            } else {
+                super.addDateHeader(name, date);
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+            super.setStatus(sc);
         }
 
         @Override
-        public void setWriteListener(WriteListener writeListener) {
-            // Ignore for now
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String sm) {
+            status = sc;
+            super.setStatus(sc, sm);
+        }
+
+        /** @return True if the header was handled here **/
+        private boolean intercept(String name, String value) {
+            if(ConditionalRequestWrapper.ETAG.equalsIgnoreCase(name) && value != null) {
+                String entityTag = ConditionalRequestWrapper.combine(value, dynamicComponentsOutput.getValidator());
+                super.setHeader(name, recompress ? entityTag : ConditionalRequestWrapper.weak(entityTag));
+                return true;
+            }
+            if(!recompress && CONTENT_ENCODING.equalsIgnoreCase(name) && GZIP.equalsIgnoreCase(String.valueOf(value).trim())) {
+                encodingRemoved = true;
+                super.addHeader(VARY, ACCEPT_ENCODING);
+                return true;
+            }
+            if(CONTENT_LENGTH.equalsIgnoreCase(name) && value != null) {
+                try {
+                    setContentLengthLong(Long.parseLong(value.trim()));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Upstream Content Length is invalid: '{}'", value);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /** @return True if the upstream answered a conditional request with 304 (Not Modified) **/
+        boolean isNotModified() {
+            return status == SC_NOT_MODIFIED;
+        }
+
+        /**
+         * @param version Version of the Registry that was spliced in
+         * @return Response as it was written to the client or null if it must not be cached
+         */
+        ResponseCache.Entry toCacheEntry(long version) {
+            if(capture == null || capture.isOverflow() || outputStream == null || status != SC_OK || containsHeader(SET_COOKIE)) {
+                return null;
+            }
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            for(String name: CACHED_HEADERS) {
+                Collection<String> values = getHeaders(name);
+                if(values != null && !values.isEmpty()) {
+                    headers.put(name, new ArrayList<>(values));
+                }
+            }
+            return new ResponseCache.Entry(capture.toByteArray(), getContentType(), headers, lastModifiedHeader, version);
+        }
+
+        /** @return Splice Stream or null if the upstream did not write any content **/
+        SpliceServletOutputStream getSpliceStream() {
+            return outputStream;
+        }
+
+        void finish() throws IOException {
+            if(writer != null) {
+                writer.flush();
+            }
+            if(outputStream != null) {
+                outputStream.finish();
+            }
+        }
+    }
+
+    /** Writes into the target and a copy into the capture **/
+    private static class TeeOutputStream extends FilterOutputStream {
+        private final OutputStream copy;
+
+        TeeOutputStream(OutputStream target, OutputStream copy) {
+            super(target);
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            copy.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+    }
+
+    /** Keeps the written bytes in memory until the limit is exceeded **/
+    private static class CapturingOutputStream extends ByteArrayOutputStream {
+        private final long limit;
+        private boolean overflow;
+
+        CapturingOutputStream(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if(overflow) {
+                return;
+            }
+            if(count + len > limit) {
+                overflow = true;
+                reset();
+                return;
+            }
+            super.write(b, off, len);
+        }
+
+        boolean isOverflow() {
+            return overflow;
         }
     }
 
-    private static class PropertyHierarchy {
-        private String providedComponentPath;
-        private Map<String, Object> hierarchicalProperties = new HashMap<>();
+    static class PropertyHierarchy {
+        private final String providedComponentPath;
+        private final Map<String, Object> ownProperties;
+        private final String superType;
+        private final ResolvedType resolvedSuperType;
+        private final Map<String, Object> hierarchicalProperties;
+
+        public PropertyHierarchy(Resource source, SuperTypeCache superTypeCache) {
+            this(
+                source.getPath(), new HashMap<String, Object>(source.getValueMap()),
+                source.getValueMap().get(SLING_RESOURCE_SUPER_TYPE_PROPERTY, String.class),
+                superTypeCache, source.getResourceResolver()
+            );
+        }
+
+        private PropertyHierarchy(
+            String providedComponentPath, Map<String, Object> ownProperties, String superType,
+            SuperTypeCache superTypeCache, ResourceResolver resourceResolver
+        ) {
+            this.providedComponentPath = providedComponentPath;
+            this.ownProperties = ownProperties;
+            this.superType = superType;
+            this.resolvedSuperType = superType == null ? null : superTypeCache.resolve(superType, resourceResolver);
+            Map<String, Object> properties = new HashMap<>(ownProperties);
+            if(resolvedSuperType != null) {
+                LOGGER.debug("Super Type found: '{}'", superType);
+                for(Entry<String,Object> entry: resolvedSuperType.getProperties().entrySet()) {
+                    if(!properties.containsKey(entry.getKey())) {
+                        properties.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            this.hierarchicalProperties = properties;
+        }
+
+        /** @return False if the Super Type Chain changed since this was created **/
+        public boolean isValid() {
+            return resolvedSuperType == null || resolvedSuperType.isValid();
+        }
 
-        public PropertyHierarchy(Resource source) {
-            providedComponentPath = source.getPath();
-            String[] searchPaths = source.getResourceResolver().getSearchPath();
-            LOGGER.trace("Search Paths: '{}'", Arrays.asList(searchPaths));
-            traverse(source, searchPaths);
+        /** @return A new Property Hierarchy with the Super Type Chain resolved again **/
+        public PropertyHierarchy refresh(SuperTypeCache superTypeCache, ResourceResolver resourceResolver) {
+            return new PropertyHierarchy(providedComponentPath, ownProperties, superType, superTypeCache, resourceResolver);
         }
 
         public String getProvidedComponentPath() {
@@ -286,37 +1166,5 @@ public class DynamicComponentFilter
                 return defaultValue;
             }
         }
-
-        private void traverse(Resource resource, String[] searchPaths) {
-            LOGGER.debug("Traverse resource: '{}'", resource);
-            ValueMap properties = resource.getValueMap();
-            if(properties != null) {
-                for(Entry<String,Object> entry: properties.entrySet()) {
-                    if(!hierarchicalProperties.containsKey(entry.getKey())) {
-                        hierarchicalProperties.put(entry.getKey(), entry.getValue());
-                    }
-                }
-                String superType = properties.get(SLING_RESOURCE_SUPER_TYPE_PROPERTY, String.class);
-                if(superType != null) {
-                    LOGGER.debug("Super Type found: '{}'", superType);
-                    Resource superResource = null;
-                    if(!superType.startsWith("/")) {
-                        for(String searchPath: searchPaths) {
-                            String path = searchPath + superType;
-                            superResource = resource.getResourceResolver().getResource(path);
-                            if(superResource != null) {
-                                LOGGER.debug("Found Super Type ('{}'): '{}'", path, superResource);
-                                break;
-                            }
-                        }
-                    } else {
-                        superResource = resource.getResourceResolver().getResource(superType);
-                    }
-                    if(superResource != null) {
-                        traverse(superResource, searchPaths);
-                    }
-                }
-            }
-        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.DynamicComponentsOutput;
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.Registry;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+
+/**
+ * Serves only the Dynamic Components of the shared Registry as JSon object in the
+ * format of the Components List. The merge hook of the Page Editor adds them to the
+ * upstream Components List on the client so that the upstream response is neither
+ * buffered nor modified. The content is pre-serialized (and compressed) per Registry
+ * and can be revalidated with its Entity Tag.
+ *
+ * It is only available if the Client Merge of the Dynamic Component Filter is enabled.
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        Constants.SERVICE_DESCRIPTION + "=" + "Servlet that lists the Dynamic Components for the Client Merge",
+        "sling.servlet.paths" + "=" + DynamicComponentListServlet.PATH,
+        "sling.servlet.methods" + "=" + "GET"
+    }
+)
+public class DynamicComponentListServlet
+    extends SlingSafeMethodsServlet
+{
+    public static final String PATH = "/bin/dynamic/components";
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String CONTENT_TYPE = "application/json";
+    private static final String CHARACTER_ENCODING = "UTF-8";
+    /** Cached by the browser but revalidated on every use **/
+    private static final String CACHE_CONTROL = "private, no-cache";
+
+    @Reference
+    private transient DynamicComponentFilter dynamicComponentFilter;
+
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response) throws IOException {
+        if(!dynamicComponentFilter.isClientMerge()) {
+            response.sendError(SC_NOT_FOUND);
+            return;
+        }
+        Registry registry = dynamicComponentFilter.getRegistry();
+        DynamicComponentsOutput output = registry.getOutput();
+        boolean compressed = DynamicComponentFilter.acceptsGzip(request);
+        // Each encoding is a different representation and so it needs its own Entity Tag
+        String entityTag = '"' + output.getValidator() + (compressed ? "-" + DynamicComponentFilter.GZIP : "") + '"';
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        response.setHeader(DynamicComponentFilter.VARY, DynamicComponentFilter.ACCEPT_ENCODING);
+        response.setHeader(ConditionalRequestWrapper.ETAG, entityTag);
+        response.setDateHeader(ConditionalRequestWrapper.LAST_MODIFIED, registry.getLastModified());
+        String ifNoneMatch = request.getHeader(ConditionalRequestWrapper.IF_NONE_MATCH);
+        if(ifNoneMatch != null && ConditionalRequestWrapper.matches(ifNoneMatch, entityTag)) {
+            response.setStatus(SC_NOT_MODIFIED);
+            return;
+        }
+        byte[] content;
+        if(compressed) {
+            content = output.getCompressedDocument(dynamicComponentFilter.getCompressionPool());
+            response.setHeader(DynamicComponentFilter.CONTENT_ENCODING, DynamicComponentFilter.GZIP);
+        } else {
+            content = output.getDocument();
+        }
+        response.setContentType(CONTENT_TYPE);
+        response.setCharacterEncoding(CHARACTER_ENCODING);
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
+    }
+}
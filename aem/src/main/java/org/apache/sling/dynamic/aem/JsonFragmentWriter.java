@@ -0,0 +1,186 @@
+package org.apache.sling.dynamic.aem;
+
+import java.util.Arrays;
+
+/**
+ * Writes the entries of a JSon object as a fragment that is appended to an existing
+ * object: every entry is prefixed with a comma. Names and values are escaped (RFC 8259)
+ * and encoded as UTF-8 directly into a growing buffer so that neither intermediate
+ * Strings nor a separate encoding step are needed.
+ *
+ * Only entries with String properties are supported as that is all the Components List
+ * contains. U+2028 and U+2029 are escaped as well so that the fragment is also valid
+ * JavaScript.
+ */
+class JsonFragmentWriter {
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private byte[] buffer;
+    private int count;
+    private boolean inEntry;
+    private boolean firstProperty;
+
+    /** @param initialCapacity Initial size of the buffer in bytes **/
+    JsonFragmentWriter(int initialCapacity) {
+        buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Starts a new entry whose value is an object
+     *
+     * @param name Name of the entry
+     * @return This writer
+     */
+    JsonFragmentWriter beginEntry(String name) {
+        if(inEntry) {
+            throw new IllegalStateException("Entry is not ended");
+        }
+        write(',');
+        writeString(name);
+        write(':');
+        write('{');
+        inEntry = true;
+        firstProperty = true;
+        return this;
+    }
+
+    /**
+     * @param name Name of the property
+     * @param value Value of the property. A null value is written as JSon null
+     * @return This writer
+     */
+    JsonFragmentWriter property(String name, String value) {
+        if(!inEntry) {
+            throw new IllegalStateException("Property outside of an entry: " + name);
+        }
+        if(!firstProperty) {
+            write(',');
+        }
+        firstProperty = false;
+        writeString(name);
+        write(':');
+        if(value == null) {
+            write('n');
+            write('u');
+            write('l');
+            write('l');
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /** @return This writer **/
+    JsonFragmentWriter endEntry() {
+        if(!inEntry) {
+            throw new IllegalStateException("No entry to end");
+        }
+        write('}');
+        inEntry = false;
+        return this;
+    }
+
+    /** @return Copy of the fragment written so far **/
+    byte[] toByteArray() {
+        if(inEntry) {
+            throw new IllegalStateException("Entry is not ended");
+        }
+        return Arrays.copyOf(buffer, count);
+    }
+
+    int size() {
+        return count;
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        // An escaped character takes at most 6 bytes, a surrogate pair 4 bytes for 2 characters
+        ensureCapacity(length * 6 + 2);
+        byte[] target = buffer;
+        int position = count;
+        target[position++] = '"';
+        int i = 0;
+        char c;
+        // The plain ASCII prefix (mostly the whole value) is copied without any further checks
+        while(i < length && isPlain(c = value.charAt(i))) {
+            target[position++] = (byte) c;
+            i++;
+        }
+        for(; i < length; i++) {
+            c = value.charAt(i);
+            if(c < 0x80) {
+                if(isPlain(c)) {
+                    target[position++] = (byte) c;
+                } else {
+                    position = writeEscape(target, position, c);
+                }
+            } else if(c < 0x800) {
+                target[position++] = (byte) (0xc0 | (c >> 6));
+                target[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if(c == '\u2028' || c == '\u2029') {
+                position = writeUnicodeEscape(target, position, c);
+            } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                target[position++] = (byte) (0xf0 | (codePoint >> 18));
+                target[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                target[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                target[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if(Character.isSurrogate(c)) {
+                // Unpaired Surrogate cannot be encoded, same replacement as String.getBytes()
+                target[position++] = '?';
+            } else {
+                target[position++] = (byte) (0xe0 | (c >> 12));
+                target[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                target[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        target[position++] = '"';
+        count = position;
+    }
+
+    /** @return True if the character is ASCII and needs no escaping **/
+    private static boolean isPlain(char c) {
+        return c >= 0x20 && c < 0x80 && c != '"' && c != '\\';
+    }
+
+    /** @return Position after the escaped ASCII character **/
+    private static int writeEscape(byte[] target, int position, char c) {
+        char escape;
+        switch(c) {
+            case '"': escape = '"'; break;
+            case '\\': escape = '\\'; break;
+            case '\n': escape = 'n'; break;
+            case '\r': escape = 'r'; break;
+            case '\t': escape = 't'; break;
+            case '\b': escape = 'b'; break;
+            case '\f': escape = 'f'; break;
+            default: return writeUnicodeEscape(target, position, c);
+        }
+        target[position++] = '\\';
+        target[position++] = (byte) escape;
+        return position;
+    }
+
+    /** @return Position after the escaped character **/
+    private static int writeUnicodeEscape(byte[] target, int position, char c) {
+        target[position++] = '\\';
+        target[position++] = 'u';
+        target[position++] = HEX[(c >> 12) & 0xf];
+        target[position++] = HEX[(c >> 8) & 0xf];
+        target[position++] = HEX[(c >> 4) & 0xf];
+        target[position++] = HEX[c & 0xf];
+        return position;
+    }
+
+    private void write(char c) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) c;
+    }
+
+    private void ensureCapacity(int additional) {
+        if(count + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + additional));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.apache.sling.dynamic.aem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a single GZip Member (RFC 1952) with a Deflater and buffer of the Compression
+ * Pool. Unlike the GZip Output Stream of the JDK nothing is allocated besides the checksum
+ * and the Compression Level is the one of the pool. The Deflater and buffer are returned
+ * to the pool when the stream is finished or closed, the target is never closed.
+ */
+class PooledGzipOutputStream extends OutputStream {
+
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final OutputStream target;
+    private final CompressionPool compressionPool;
+    private final CRC32 checksum = new CRC32();
+    private final byte[] single = new byte[1];
+    private Deflater deflater;
+    private byte[] buffer;
+
+    PooledGzipOutputStream(OutputStream target, CompressionPool compressionPool) throws IOException {
+        this.target = target;
+        this.compressionPool = compressionPool;
+        this.deflater = compressionPool.acquireDeflater();
+        this.buffer = compressionPool.acquireBuffer();
+        target.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(deflater == null) {
+            throw new IOException("GZip Stream is already finished");
+        }
+        if(len == 0) {
+            return;
+        }
+        checksum.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while(!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    /** Writes the remaining compressed data and the trailer and releases the Deflater **/
+    void finish() throws IOException {
+        if(deflater == null) {
+            return;
+        }
+        try {
+            deflater.finish();
+            while(!deflater.finished()) {
+                deflate();
+            }
+            writeInt((int) checksum.getValue());
+            writeInt(deflater.getTotalIn());
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    /** Returns the Deflater and buffer to the pool without finishing the member **/
+    void release() {
+        if(deflater != null) {
+            compressionPool.releaseDeflater(deflater);
+            compressionPool.releaseBuffer(buffer);
+            deflater = null;
+            buffer = null;
+        }
+    }
+
+    private void deflate() throws IOException {
+        int count = deflater.deflate(buffer, 0, buffer.length);
+        if(count > 0) {
+            target.write(buffer, 0, count);
+        }
+    }
+
+    /** Writes the value in Little Endian order **/
+    private void writeInt(int value) throws IOException {
+        target.write(value & 0xff);
+        target.write((value >> 8) & 0xff);
+        target.write((value >> 16) & 0xff);
+        target.write((value >> 24) & 0xff);
+    }
+}
@@ -0,0 +1,220 @@
+package org.apache.sling.dynamic.aem;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded LRU Cache of the final (spliced and, if the upstream did so, compressed)
+ * Components List. Users that share the same groups get the same upstream list and
+ * so the entries are keyed by a fingerprint of the groups and the request variant.
+ *
+ * Each entry belongs to a Registry version and is not served for any other version.
+ * The cache is bounded by the total number of bytes of the entries and an entry
+ * expires after the time to live so that permission changes, which are not observed,
+ * show up eventually. It must be cleared when a component below /apps or /libs changes.
+ *
+ * The fingerprint of a user's groups is kept by the user id for a short time so that a
+ * burst of requests does not read the group memberships every time while a change of
+ * them shows up right after.
+ */
+class ResponseCache {
+
+    public static final long DEFAULT_MAXIMUM_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_TIME_TO_LIVE = 300;
+    /** Maximum number of users whose fingerprint is kept **/
+    public static final int MAXIMUM_FINGERPRINTS = 10000;
+    /** Time a fingerprint is kept unless the time to live of the entries is shorter **/
+    public static final long FINGERPRINT_TIME_TO_LIVE = 10;
+
+    private final long maximumBytes;
+    private final long timeToLiveMillis;
+    private final long fingerprintTimeToLiveMillis;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final ConcurrentMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+    /**
+     * @param maximumBytes Maximum total size of the cached content. 0 or less disables the cache
+     * @param timeToLiveSeconds Time an entry is served after it was added
+     */
+    ResponseCache(long maximumBytes, long timeToLiveSeconds) {
+        this.maximumBytes = maximumBytes;
+        this.timeToLiveMillis = timeToLiveSeconds * 1000;
+        this.fingerprintTimeToLiveMillis = Math.min(timeToLiveSeconds, FINGERPRINT_TIME_TO_LIVE) * 1000;
+    }
+
+    boolean isEnabled() {
+        return maximumBytes > 0;
+    }
+
+    /** @return Maximum size of a single entry, larger responses are not cached **/
+    long getMaximumEntrySize() {
+        return maximumBytes / 4;
+    }
+
+    /**
+     * @param key Fingerprint and variant of the request
+     * @param version Version of the current Registry
+     * @return Cached response or null if there is none for this key and version or it expired
+     */
+    Entry get(String key, long version) {
+        synchronized (entries) {
+            Entry answer = entries.get(key);
+            if(answer != null && (answer.getVersion() != version || answer.isExpired(timeToLiveMillis))) {
+                remove(key);
+                answer = null;
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * Adds the given entry unless it is larger than the maximum entry size
+     *
+     * @param key Fingerprint and variant of the request
+     * @param entry Response to be cached
+     */
+    void put(String key, Entry entry) {
+        if(entry.getContent().length > getMaximumEntrySize()) {
+            return;
+        }
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, entry);
+            bytes += entry.getContent().length;
+            Iterator<Entry> i = entries.values().iterator();
+            while(bytes > maximumBytes && i.hasNext()) {
+                bytes -= i.next().getContent().length;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * @param userId Id of the requesting user
+     * @return Fingerprint of the user's groups or null if there is none or it expired
+     */
+    String getFingerprint(String userId) {
+        Fingerprint answer = fingerprints.get(userId);
+        if(answer == null) {
+            return null;
+        }
+        if(System.currentTimeMillis() - answer.created > fingerprintTimeToLiveMillis) {
+            fingerprints.remove(userId, answer);
+            return null;
+        }
+        return answer.value;
+    }
+
+    /**
+     * @param userId Id of the requesting user
+     * @param fingerprint Fingerprint of the user's groups
+     */
+    void putFingerprint(String userId, String fingerprint) {
+        if(fingerprints.size() >= MAXIMUM_FINGERPRINTS) {
+            // Dropping all is cheaper than tracking their use and they are read again on demand
+            fingerprints.clear();
+        }
+        fingerprints.put(userId, new Fingerprint(fingerprint));
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if(removed != null) {
+            bytes -= removed.getContent().length;
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    private static class Fingerprint {
+        private final String value;
+        private final long created = System.currentTimeMillis();
+
+        private Fingerprint(String value) {
+            this.value = value;
+        }
+    }
+
+    /** Immutable Response of the Components List as it was sent to the client **/
+    static class Entry {
+        private final byte[] content;
+        private final String contentType;
+        private final Map<String, List<String>> headers;
+        private final long lastModified;
+        private final long version;
+        private final long created = System.currentTimeMillis();
+
+        /**
+         * @param content Bytes written to the client
+         * @param contentType Content Type including the Character Encoding
+         * @param headers Headers to be replayed by their name
+         * @param lastModified Last Modified date of the response in milliseconds or -1 if unknown
+         * @param version Version of the Registry the content was spliced with
+         */
+        Entry(byte[] content, String contentType, Map<String, List<String>> headers, long lastModified, long version) {
+            this.content = content;
+            this.contentType = contentType;
+            this.headers = Collections.unmodifiableMap(headers);
+            this.lastModified = lastModified;
+            this.version = version;
+        }
+
+        /** @return Bytes written to the client (must not be modified) **/
+        byte[] getContent() {
+            return content;
+        }
+
+        String getContentType() {
+            return contentType;
+        }
+
+        Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        /** @return First value of the given header or null if not set **/
+        String getHeader(String name) {
+            for(Map.Entry<String, List<String>> entry: headers.entrySet()) {
+                if(entry.getKey().equalsIgnoreCase(name) && !entry.getValue().isEmpty()) {
+                    return entry.getValue().get(0);
+                }
+            }
+            return null;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        private boolean isExpired(long timeToLiveMillis) {
+            return System.currentTimeMillis() - created > timeToLiveMillis;
+        }
+    }
+}
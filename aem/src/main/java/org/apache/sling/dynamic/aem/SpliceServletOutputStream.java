@@ -0,0 +1,385 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.DynamicComponentsOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Output Stream that splices the Dynamic Components into the upstream Components
+ * List while it is written. Only the closing bracket (and any trailing whitespace)
+ * is held back and replaced by the Dynamic Components when the stream is finished.
+ *
+ * A GZip compressed upstream list is inflated on the fly and deflated again into
+ * the target with a bounded buffer. If the client does not accept GZip it is written
+ * uncompressed instead. Any other content is written through as is. Inflater, Deflater
+ * and their buffers are taken from the Compression Pool and returned on finish.
+ *
+ * If a Content Length was declared for uncompressed content then exactly the length of
+ * the Dynamic Components is added: the trailing whitespace is kept and content that
+ * cannot be spliced is padded with whitespace (still valid JSon).
+ */
+class SpliceServletOutputStream extends ServletOutputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpliceServletOutputStream.class);
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private enum State { DETECT, HEADER, INFLATE, TRAILER, PLAIN }
+
+    private final CountingOutputStream target;
+    private final DynamicComponentsOutput dynamicComponentsOutput;
+    private final CompressionPool compressionPool;
+    private final boolean recompress;
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream(GZIP_HEADER_SIZE);
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final byte[] single = new byte[1];
+
+    private State state = State.DETECT;
+    private boolean compressed;
+    private Inflater inflater;
+    private byte[] inflated;
+    private PooledGzipOutputStream deflated;
+    private int trailerRemaining;
+    private boolean finished;
+    private boolean lengthDeclared;
+    private long upstreamBytes;
+    private long spliceNanos;
+
+    /**
+     * @param target Stream of the actual response. It is not closed by this stream
+     * @param dynamicComponentsOutput Pre-serialized Dynamic Components to be spliced in
+     * @param compressionPool Pool of the Inflaters and Deflaters with the configured Compression Level
+     * @param recompress If false GZip compressed upstream content is written uncompressed
+     */
+    SpliceServletOutputStream(
+        OutputStream target, DynamicComponentsOutput dynamicComponentsOutput, CompressionPool compressionPool, boolean recompress
+    ) {
+        this.target = new CountingOutputStream(target);
+        this.dynamicComponentsOutput = dynamicComponentsOutput;
+        this.compressionPool = compressionPool;
+        this.recompress = recompress;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(finished) {
+            throw new IOException("Stream is already finished");
+        }
+        long start = System.nanoTime();
+        upstreamBytes += len;
+        try {
+            splice(b, off, len);
+        } finally {
+            spliceNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void splice(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        while(off < end) {
+            switch(state) {
+                case DETECT:
+                    header.write(b[off++]);
+                    if(header.size() == 2) {
+                        byte[] magic = header.toByteArray();
+                        if((magic[0] & 0xff) == GZIP_MAGIC_1 && (magic[1] & 0xff) == GZIP_MAGIC_2) {
+                            compressed = true;
+                            state = State.HEADER;
+                        } else {
+                            header.reset();
+                            state = State.PLAIN;
+                            handleContent(magic, 0, magic.length);
+                        }
+                    }
+                    break;
+                case HEADER:
+                    header.write(b[off++]);
+                    if(isHeaderComplete(header.toByteArray())) {
+                        header.reset();
+                        startMember();
+                        state = State.INFLATE;
+                    }
+                    break;
+                case INFLATE:
+                    off = end - inflate(b, off, end - off);
+                    if(inflater.finished()) {
+                        trailerRemaining = GZIP_TRAILER_SIZE;
+                        state = State.TRAILER;
+                    }
+                    break;
+                case TRAILER:
+                    int skip = Math.min(trailerRemaining, end - off);
+                    off += skip;
+                    trailerRemaining -= skip;
+                    if(trailerRemaining == 0) {
+                        // Another GZip Member could follow
+                        state = State.DETECT;
+                    }
+                    break;
+                case PLAIN:
+                    handleContent(b, off, end - off);
+                    off = end;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes the held back end of the upstream content together with the Dynamic Components
+     * into the target. This does not close the target.
+     */
+    void finish() throws IOException {
+        if(finished) {
+            return;
+        }
+        finished = true;
+        long start = System.nanoTime();
+        try {
+            spliceTail();
+        } finally {
+            spliceNanos += System.nanoTime() - start;
+        }
+    }
+
+    /** The Content Length was declared as the upstream length plus the Dynamic Components length **/
+    void setLengthDeclared() {
+        lengthDeclared = true;
+    }
+
+    /** @return Number of bytes the upstream wrote into this stream **/
+    long getUpstreamBytes() {
+        return upstreamBytes;
+    }
+
+    /** @return Number of bytes this stream wrote into the target **/
+    long getSplicedBytes() {
+        return target.getCount();
+    }
+
+    /** @return Time spent in this stream (inflating, deflating and writing) in nanoseconds **/
+    long getSpliceNanos() {
+        return spliceNanos;
+    }
+
+    private void spliceTail() throws IOException {
+        if(state == State.DETECT && header.size() > 0) {
+            // Not enough data to detect the format
+            byte[] data = header.toByteArray();
+            header.reset();
+            state = State.PLAIN;
+            handleContent(data, 0, data.length);
+        }
+        if(compressed && (state == State.HEADER || state == State.INFLATE)) {
+            LOGGER.warn("Upstream GZip Content is truncated, state: '{}'", state);
+        }
+        try {
+            writeTail(pending.toByteArray());
+        } finally {
+            if(deflated != null) {
+                deflated.release();
+            }
+            if(inflater != null) {
+                compressionPool.releaseInflater(inflater);
+                compressionPool.releaseBuffer(inflated);
+                inflater = null;
+                inflated = null;
+            }
+        }
+        target.flush();
+    }
+
+    private void writeTail(byte[] tail) throws IOException {
+        boolean splice = tail.length > 0 && tail[0] == '}';
+        if(!splice) {
+            LOGGER.warn("Upstream Content does not end with a closing bracket, not spliced");
+            writeContent(tail, 0, tail.length);
+        }
+        if(compressed && recompress) {
+            if(deflated != null) {
+                deflated.finish();
+            }
+            if(splice) {
+                target.write(dynamicComponentsOutput.getCompressedTail(compressionPool));
+            }
+        } else if(splice) {
+            target.write(dynamicComponentsOutput.getFragment());
+            if(lengthDeclared) {
+                target.write(tail);
+            } else {
+                target.write('}');
+            }
+        } else if(lengthDeclared) {
+            byte[] padding = new byte[dynamicComponentsOutput.getFragment().length];
+            Arrays.fill(padding, (byte) ' ');
+            target.write(padding);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // The target is flushed on finish as the deflater holds back data anyhow
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Closing is done by the filter with finish() after the chain returned
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        // Ignore for now
+    }
+
+    private void startMember() {
+        if(inflater == null) {
+            inflater = compressionPool.acquireInflater();
+            inflated = compressionPool.acquireBuffer();
+        } else {
+            inflater.reset();
+        }
+    }
+
+    /** @return Number of bytes not consumed by the inflater **/
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        inflater.setInput(b, off, len);
+        try {
+            while(!inflater.finished() && !inflater.needsInput()) {
+                int count = inflater.inflate(inflated);
+                if(count > 0) {
+                    handleContent(inflated, 0, count);
+                } else if(inflater.needsDictionary()) {
+                    throw new IOException("GZip Content requires a Dictionary");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Upstream GZip Content is invalid", e);
+        }
+        return inflater.finished() ? inflater.getRemaining() : 0;
+    }
+
+    /** Writes the content but holds back the last non-whitespace character and everything after it **/
+    private void handleContent(byte[] b, int off, int len) throws IOException {
+        int last = off + len - 1;
+        while(last >= off && Character.isWhitespace(b[last])) {
+            last--;
+        }
+        if(last < off) {
+            pending.write(b, off, len);
+        } else {
+            if(pending.size() > 0) {
+                byte[] held = pending.toByteArray();
+                pending.reset();
+                writeContent(held, 0, held.length);
+            }
+            writeContent(b, off, last - off);
+            pending.write(b, last, off + len - last);
+        }
+    }
+
+    private void writeContent(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return;
+        }
+        if(compressed && recompress) {
+            if(deflated == null) {
+                deflated = new PooledGzipOutputStream(target, compressionPool);
+            }
+            deflated.write(b, off, len);
+        } else {
+            target.write(b, off, len);
+        }
+    }
+
+    /** @return True if the given bytes contain a complete GZip header (RFC 1952) **/
+    private static boolean isHeaderComplete(byte[] data) {
+        if(data.length < GZIP_HEADER_SIZE) {
+            return false;
+        }
+        int flags = data[3] & 0xff;
+        int index = GZIP_HEADER_SIZE;
+        if((flags & FEXTRA) != 0) {
+            if(data.length < index + 2) {
+                return false;
+            }
+            index += 2 + ((data[index] & 0xff) | ((data[index + 1] & 0xff) << 8));
+        }
+        if((flags & FNAME) != 0) {
+            index = skipZeroTerminated(data, index);
+            if(index < 0) {
+                return false;
+            }
+        }
+        if((flags & FCOMMENT) != 0) {
+            index = skipZeroTerminated(data, index);
+            if(index < 0) {
+                return false;
+            }
+        }
+        if((flags & FHCRC) != 0) {
+            index += 2;
+        }
+        return data.length == index;
+    }
+
+    /** @return Index after the terminating zero or -1 if there is none **/
+    private static int skipZeroTerminated(byte[] data, int index) {
+        while(index < data.length) {
+            if(data[index++] == 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.apache.sling.dynamic.common.Constants.SLING_RESOURCE_SUPER_TYPE_PROPERTY;
+
+/**
+ * Shared Cache of the merged Properties of a Resource Super Type including all its
+ * ancestors. Components that share an ancestor chain only resolve it once.
+ * An entry is invalidated when any resource of its chain changes.
+ */
+class SuperTypeCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SuperTypeCache.class);
+
+    private final ConcurrentMap<String, ResolvedType> resolvedTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Resolves the given Super Type and its ancestors through the Search Paths
+     * of the given Resource Resolver or returns the cached one
+     *
+     * @param superType Resource Super Type (relative or absolute)
+     * @param resourceResolver Resource Resolver used to look up the Super Types if not cached
+     * @return Resolved Type or null if the Super Type could not be found
+     */
+    ResolvedType resolve(String superType, ResourceResolver resourceResolver) {
+        return resolve(superType, resourceResolver, resourceResolver.getSearchPath(), new HashSet<String>());
+    }
+
+    private ResolvedType resolve(String superType, ResourceResolver resourceResolver, String[] searchPaths, Set<String> visiting) {
+        ResolvedType answer = resolvedTypes.get(superType);
+        if(answer != null) {
+            return answer;
+        }
+        if(!visiting.add(superType)) {
+            LOGGER.warn("Super Type Cycle detected for: '{}'", superType);
+            return null;
+        }
+        // All probed paths are part of the chain so that an overlay added later invalidates it
+        Set<String> chainPaths = new HashSet<>();
+        Resource superResource = null;
+        if(!superType.startsWith("/")) {
+            for(String searchPath: searchPaths) {
+                String path = searchPath + superType;
+                chainPaths.add(path);
+                superResource = resourceResolver.getResource(path);
+                if(superResource != null) {
+                    LOGGER.debug("Found Super Type ('{}'): '{}'", path, superResource);
+                    break;
+                }
+            }
+        } else {
+            chainPaths.add(superType);
+            superResource = resourceResolver.getResource(superType);
+        }
+        if(superResource == null) {
+            return null;
+        }
+        ValueMap properties = superResource.getValueMap();
+        Map<String, Object> hierarchicalProperties = new HashMap<>(properties);
+        String nextSuperType = properties.get(SLING_RESOURCE_SUPER_TYPE_PROPERTY, String.class);
+        if(nextSuperType != null) {
+            ResolvedType parent = resolve(nextSuperType, resourceResolver, searchPaths, visiting);
+            if(parent != null) {
+                for(Entry<String, Object> entry: parent.getProperties().entrySet()) {
+                    if(!hierarchicalProperties.containsKey(entry.getKey())) {
+                        hierarchicalProperties.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                chainPaths.addAll(parent.getChainPaths());
+            }
+        }
+        answer = new ResolvedType(hierarchicalProperties, chainPaths);
+        ResolvedType existing = resolvedTypes.putIfAbsent(superType, answer);
+        return existing != null ? existing : answer;
+    }
+
+    /**
+     * Removes all entries whose chain contains the given path or a resource below it
+     *
+     * @param path Path of the changed resource
+     * @return True if at least one entry was invalidated
+     */
+    boolean invalidate(String path) {
+        boolean answer = false;
+        String prefix = path + "/";
+        Iterator<ResolvedType> i = resolvedTypes.values().iterator();
+        while(i.hasNext()) {
+            ResolvedType resolvedType = i.next();
+            for(String chainPath: resolvedType.getChainPaths()) {
+                if(chainPath.equals(path) || chainPath.startsWith(prefix)) {
+                    resolvedType.invalidate();
+                    i.remove();
+                    answer = true;
+                    break;
+                }
+            }
+        }
+        return answer;
+    }
+
+    int size() {
+        return resolvedTypes.size();
+    }
+
+    /**
+     * Merged Properties of a Super Type and its ancestors together with
+     * the paths of all resources that were involved in resolving them
+     */
+    static class ResolvedType {
+        private final Map<String, Object> properties;
+        private final Set<String> chainPaths;
+        private volatile boolean valid = true;
+
+        ResolvedType(Map<String, Object> properties, Set<String> chainPaths) {
+            this.properties = Collections.unmodifiableMap(properties);
+            this.chainPaths = Collections.unmodifiableSet(chainPaths);
+        }
+
+        Map<String, Object> getProperties() {
+            return properties;
+        }
+
+        Set<String> getChainPaths() {
+            return chainPaths;
+        }
+
+        boolean isValid() {
+            return valid;
+        }
+
+        private void invalidate() {
+            valid = false;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import static org.apache.sling.dynamic.aem.ConditionalRequestWrapper.IF_MODIFIED_SINCE;
+import static org.apache.sling.dynamic.aem.ConditionalRequestWrapper.IF_NONE_MATCH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The upstream must only see the conditions it can evaluate on its own. Otherwise it would
+ * answer with a 304 although the Dynamic Components changed since the client got its copy.
+ */
+public class ConditionalRequestWrapperTest {
+
+    private static final String VALIDATOR = "dc1a2b3c4d";
+    private static final long LAST_MODIFIED = 1500000000000L;
+
+    private final Mockery context = new Mockery();
+
+    @Test
+    public void testEntityTagsAreStripped() {
+        assertEquals("\"abc\"", ConditionalRequestWrapper.strip(ConditionalRequestWrapper.combine("\"abc\"", VALIDATOR), VALIDATOR));
+        assertEquals(
+            "\"abc\", W/\"def\"",
+            ConditionalRequestWrapper.strip("\"abc-" + VALIDATOR + "\" , W/\"def-" + VALIDATOR + "\",\"ghi-dcold\"", VALIDATOR)
+        );
+        // Tags of other Dynamic Components or of the plain upstream list cannot match anymore
+        assertNull(ConditionalRequestWrapper.strip("\"abc-dcold\", \"abc\"", VALIDATOR));
+        assertNull(ConditionalRequestWrapper.strip(null, VALIDATOR));
+        assertEquals("*", ConditionalRequestWrapper.strip(" * ", VALIDATOR));
+    }
+
+    @Test
+    public void testEntityTagsAreCombined() {
+        assertEquals("\"abc-" + VALIDATOR + "\"", ConditionalRequestWrapper.combine("\"abc\"", VALIDATOR));
+        assertEquals("W/\"abc-" + VALIDATOR + "\"", ConditionalRequestWrapper.combine(" W/\"abc\" ", VALIDATOR));
+        assertEquals("W/\"abc\"", ConditionalRequestWrapper.weak("\"abc\""));
+        assertEquals("W/\"abc\"", ConditionalRequestWrapper.weak("W/\"abc\""));
+        // Weak comparison as for a GET request
+        assertTrue(ConditionalRequestWrapper.matches("\"xyz\", W/\"abc\"", "\"abc\""));
+        assertTrue(ConditionalRequestWrapper.matches("*", "\"abc\""));
+        assertFalse(ConditionalRequestWrapper.matches("\"abc-dcold\"", "\"abc\""));
+    }
+
+    @Test
+    public void testIfNoneMatchIsRewritten() {
+        ConditionalRequestWrapper wrapper = new ConditionalRequestWrapper(
+            request("\"abc-" + VALIDATOR + "\"", -1), VALIDATOR, LAST_MODIFIED
+        );
+        assertEquals("\"abc\"", wrapper.getHeader(IF_NONE_MATCH));
+        assertEquals(Collections.singletonList("\"abc\""), Collections.list(wrapper.getHeaders("if-none-match")));
+        assertEquals(Arrays.asList(IF_NONE_MATCH, "Accept"), Collections.list(names(wrapper)));
+
+        wrapper = new ConditionalRequestWrapper(request("\"abc-dcold\"", -1), VALIDATOR, LAST_MODIFIED);
+        assertNull(wrapper.getHeader(IF_NONE_MATCH));
+        assertFalse(wrapper.getHeaders(IF_NONE_MATCH).hasMoreElements());
+        assertEquals(Collections.singletonList("Accept"), Collections.list(names(wrapper)));
+    }
+
+    @Test
+    public void testIfModifiedSinceIsDroppedIfChanged() {
+        // Changed after the client got its copy
+        ConditionalRequestWrapper wrapper = new ConditionalRequestWrapper(request(null, LAST_MODIFIED - 1000), VALIDATOR, LAST_MODIFIED);
+        assertNull(wrapper.getHeader(IF_MODIFIED_SINCE));
+        assertEquals(-1, wrapper.getDateHeader(IF_MODIFIED_SINCE));
+        assertFalse(wrapper.getHeaders(IF_MODIFIED_SINCE).hasMoreElements());
+        assertEquals(Collections.singletonList("Accept"), Collections.list(names(wrapper)));
+
+        // HTTP Dates have a precision of seconds
+        wrapper = new ConditionalRequestWrapper(request(null, LAST_MODIFIED + 200), VALIDATOR, LAST_MODIFIED + 700);
+        assertEquals(LAST_MODIFIED + 200, wrapper.getDateHeader(IF_MODIFIED_SINCE));
+        assertEquals(Arrays.asList(IF_MODIFIED_SINCE, "Accept"), Collections.list(names(wrapper)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Enumeration<String> names(ConditionalRequestWrapper wrapper) {
+        return wrapper.getHeaderNames();
+    }
+
+    /**
+     * @param ifNoneMatch Value of the If-None-Match header or null if not set
+     * @param ifModifiedSince Value of the If-Modified-Since header or -1 if not set
+     * @return Mocked Request with the given conditions and an Accept header
+     */
+    private SlingHttpServletRequest request(final String ifNoneMatch, final long ifModifiedSince) {
+        final SlingHttpServletRequest answer = context.mock(
+            SlingHttpServletRequest.class, "request-" + ifNoneMatch + "-" + ifModifiedSince
+        );
+        final String ifModifiedSinceHeader = ifModifiedSince < 0 ? null : String.valueOf(ifModifiedSince);
+        final String name = ifNoneMatch != null ? IF_NONE_MATCH : ifModifiedSince >= 0 ? IF_MODIFIED_SINCE : null;
+        context.checking(new Expectations() {{
+            allowing(answer).getHeader(IF_NONE_MATCH); will(returnValue(ifNoneMatch));
+            allowing(answer).getHeader(IF_MODIFIED_SINCE); will(returnValue(ifModifiedSinceHeader));
+            allowing(answer).getDateHeader(IF_MODIFIED_SINCE); will(returnValue(ifModifiedSince));
+            allowing(answer).getHeaderNames();
+            will(returnValue(Collections.enumeration(name == null ? Collections.singletonList("Accept") : Arrays.asList(name, "Accept"))));
+        }});
+        return answer;
+    }
+}
@@ -0,0 +1,144 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlPolicy;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Users share a cached Components List only if the list cannot differ between them:
+ * same groups and no Access Control Entries of their own.
+ */
+public class DynamicComponentFilterCacheKeyTest {
+
+    private static final ResponseCache.Entry ENTRY = new ResponseCache.Entry(
+        new byte[] {'{', '}'}, "application/json", Collections.<String, List<String>>emptyMap(), -1, 1
+    );
+
+    private final Mockery context = new Mockery();
+    private ResponseCache cache;
+
+    @Before
+    public void setup() {
+        cache = new ResponseCache(ResponseCache.DEFAULT_MAXIMUM_BYTES, ResponseCache.DEFAULT_TIME_TO_LIVE);
+    }
+
+    @Test
+    public void testUsersWithSameGroupsShareEntries() {
+        String first = DynamicComponentFilter.getCacheKey(createRequest("alice", false, null), cache);
+        String second = DynamicComponentFilter.getCacheKey(createRequest("carol", false, null), cache);
+        assertNotNull(first);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testUserWithOwnEntriesGetsSeparateEntry() {
+        String shared = DynamicComponentFilter.getCacheKey(createRequest("alice", false, null), cache);
+        String denied = DynamicComponentFilter.getCacheKey(createRequest("bob", true, null), cache);
+        String other = DynamicComponentFilter.getCacheKey(createRequest("dave", true, null), cache);
+        assertNotEquals(shared, denied);
+        assertNotEquals(denied, other);
+        cache.put(shared, ENTRY);
+        assertNull("User with own entries must not get the shared entry", cache.get(denied, 1));
+        assertNull(cache.get(other, 1));
+        cache.put(denied, ENTRY);
+        assertNull("Users with own entries must not share", cache.get(other, 1));
+    }
+
+    @Test
+    public void testVariantsAreSeparate() {
+        String plain = DynamicComponentFilter.getCacheKey(createRequest("alice", false, null), cache);
+        String compressed = DynamicComponentFilter.getCacheKey(createRequest("carol", false, "deflate, gzip"), cache);
+        String refused = DynamicComponentFilter.getCacheKey(createRequest("erin", false, "gzip;q=0"), cache);
+        assertNotEquals(plain, compressed);
+        assertEquals(plain, refused);
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(DynamicComponentFilter.acceptsGzip("gzip"));
+        assertTrue(DynamicComponentFilter.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(DynamicComponentFilter.acceptsGzip("br;q=1.0, *;q=0.1"));
+        assertTrue(DynamicComponentFilter.acceptsGzip("gzip ; q = 1"));
+        assertFalse(DynamicComponentFilter.acceptsGzip((String) null));
+        assertFalse(DynamicComponentFilter.acceptsGzip(""));
+        assertFalse(DynamicComponentFilter.acceptsGzip("gzip;q=0"));
+        assertFalse(DynamicComponentFilter.acceptsGzip("gzip;q=0.000, deflate"));
+        assertFalse(DynamicComponentFilter.acceptsGzip("x-gzip"));
+        assertFalse(DynamicComponentFilter.acceptsGzip("identity"));
+        // A named coding wins over the wildcard
+        assertFalse(DynamicComponentFilter.acceptsGzip("gzip;q=0, *"));
+        assertFalse(DynamicComponentFilter.acceptsGzip("*;q=0"));
+        assertFalse(DynamicComponentFilter.acceptsGzip("gzip;q=abc"));
+    }
+
+    private SlingHttpServletRequest createRequest(final String userId, boolean ownEntries, final String acceptEncoding) {
+        final SlingHttpServletRequest request = context.mock(SlingHttpServletRequest.class, "request-" + userId + "-" + acceptEncoding);
+        final ResourceResolver resourceResolver = context.mock(ResourceResolver.class, "resolver-" + userId + "-" + acceptEncoding);
+        final JackrabbitSession session = context.mock(JackrabbitSession.class, "session-" + userId + "-" + acceptEncoding);
+        final UserManager userManager = context.mock(UserManager.class, "userManager-" + userId + "-" + acceptEncoding);
+        final JackrabbitAccessControlManager accessControlManager = context.mock(
+            JackrabbitAccessControlManager.class, "accessControlManager-" + userId + "-" + acceptEncoding
+        );
+        final User user = context.mock(User.class, "user-" + userId + "-" + acceptEncoding);
+        final Group editors = context.mock(Group.class, "editors-" + userId + "-" + acceptEncoding);
+        final RequestPathInfo requestPathInfo = context.mock(RequestPathInfo.class, "pathInfo-" + userId + "-" + acceptEncoding);
+        final Principal principal = new Principal() {
+            @Override
+            public String getName() {
+                return userId;
+            }
+        };
+        final AccessControlPolicy[] policies = ownEntries
+            ? new AccessControlPolicy[] {context.mock(AccessControlPolicy.class, "policy-" + userId + "-" + acceptEncoding)}
+            : new AccessControlPolicy[0];
+        try {
+            context.checking(new Expectations() {{
+                allowing(request).getMethod(); will(returnValue("GET"));
+                allowing(request).getResourceResolver(); will(returnValue(resourceResolver));
+                allowing(request).getRequestPathInfo(); will(returnValue(requestPathInfo));
+                allowing(request).getQueryString(); will(returnValue(null));
+                allowing(request).getHeader(DynamicComponentFilter.ACCEPT_ENCODING); will(returnValue(acceptEncoding));
+                allowing(requestPathInfo).getSelectorString(); will(returnValue(null));
+                allowing(requestPathInfo).getSuffix(); will(returnValue(null));
+                allowing(resourceResolver).adaptTo(Session.class); will(returnValue(session));
+                allowing(session).getUserID(); will(returnValue(userId));
+                allowing(session).getUserManager(); will(returnValue(userManager));
+                allowing(session).getAccessControlManager(); will(returnValue(accessControlManager));
+                allowing(userManager).getAuthorizable(userId); will(returnValue(user));
+                allowing(user).isGroup(); will(returnValue(false));
+                allowing(user).isAdmin(); will(returnValue(false));
+                allowing(user).getID(); will(returnValue(userId));
+                allowing(user).getPrincipal(); will(returnValue(principal));
+                allowing(user).memberOf(); will(returnValue(Arrays.<Group>asList(editors).iterator()));
+                allowing(editors).getID(); will(returnValue("editors"));
+                allowing(accessControlManager).getEffectivePolicies(Collections.singleton(principal)); will(returnValue(policies));
+            }});
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,219 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.Registry;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Stress Test of the copy-on-write Registry of the Dynamic Component Filter. Writers add
+ * and remove their own batches of components concurrently while readers check that every
+ * Registry they obtain is a consistent snapshot.
+ */
+public class DynamicComponentFilterRegistryTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TARGET_ROOT_PATH = "/apps/test/components";
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int ITERATIONS = 500;
+    private static final int BATCH_SIZE = 5;
+
+    @Test
+    public void testConcurrentAddRemoveAndRead() throws Exception {
+        final DynamicComponentFilter filter = new DynamicComponentFilter();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        try {
+            List<Future<Void>> writers = new ArrayList<>();
+            for(int w = 0; w < WRITERS; w++) {
+                final int writer = w;
+                writers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        // The first component of each writer stays so that every writer ends with a known state
+                        filter.addDynamicComponent(getPath(writer, "fixed"), createComponent(getPath(writer, "fixed")));
+                        for(int i = 0; i < ITERATIONS; i++) {
+                            Map<String, Resource> batch = createBatch(writer, i);
+                            filter.addDynamicComponents(batch);
+                            if(i % 2 == 0) {
+                                filter.removeDynamicComponents(batch.keySet());
+                            } else {
+                                for(String path: batch.keySet()) {
+                                    filter.removeDynamicComponent(path);
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            List<Future<Integer>> readers = new ArrayList<>();
+            for(int r = 0; r < READERS; r++) {
+                readers.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int snapshots = 0;
+                        long previousVersion = -1;
+                        do {
+                            Registry registry = filter.getRegistry();
+                            assertTrue("Version went backwards", registry.getVersion() >= previousVersion);
+                            previousVersion = registry.getVersion();
+                            assertConsistent(registry);
+                            snapshots++;
+                        } while(writing.get());
+                        return snapshots;
+                    }
+                }));
+            }
+            start.countDown();
+            for(Future<Void> writer: writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            for(Future<Integer> reader: readers) {
+                assertTrue("Reader did not check any snapshot", reader.get(60, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Registry registry = filter.getRegistry();
+        assertConsistent(registry);
+        // No update may be lost: one fixed component plus an add and a remove per iteration and writer.
+        // The single removes of odd iterations are a change each
+        long changesPerWriter = 1 + ITERATIONS + (ITERATIONS / 2) + (ITERATIONS / 2) * BATCH_SIZE;
+        assertEquals("Lost update", WRITERS * changesPerWriter, registry.getVersion());
+        assertEquals("Only the fixed components are left", WRITERS, registry.getComponents().size());
+        for(int w = 0; w < WRITERS; w++) {
+            assertTrue(registry.getComponents().containsKey(getPath(w, "fixed")));
+        }
+    }
+
+    @Test
+    public void testOutputIsCompiledOncePerRegistry() {
+        DynamicComponentFilter filter = new DynamicComponentFilter();
+        filter.addDynamicComponents(createBatch(0, 0));
+        Registry registry = filter.getRegistry();
+        assertSame(registry.getOutput(), registry.getOutput());
+        assertEquals(BATCH_SIZE, countEntries(registry));
+        filter.removeDynamicComponent(getPath(0, "0-0"));
+        assertEquals(BATCH_SIZE, countEntries(registry));
+        assertEquals(BATCH_SIZE - 1, countEntries(filter.getRegistry()));
+    }
+
+    @Test
+    public void testLastModifiedIsKeptWhileOutputIsUnchanged() throws Exception {
+        DynamicComponentFilter filter = new DynamicComponentFilter();
+        filter.addDynamicComponents(createBatch(0, 0));
+        long lastModified = filter.getRegistry().getLastModified();
+        Thread.sleep(5);
+        // Neither the intermediate Registry nor the one with the same components may move it forward
+        filter.addDynamicComponents(createBatch(1, 0));
+        filter.removeDynamicComponents(createBatch(1, 0).keySet());
+        assertEquals(lastModified, filter.getRegistry().getLastModified());
+        filter.addDynamicComponents(createBatch(1, 0));
+        assertTrue(filter.getRegistry().getLastModified() > lastModified);
+    }
+
+    @Test
+    public void testRemoveOfUnknownComponentKeepsRegistry() {
+        DynamicComponentFilter filter = new DynamicComponentFilter();
+        filter.addDynamicComponents(createBatch(0, 0));
+        Registry registry = filter.getRegistry();
+        filter.removeDynamicComponents(Collections.singleton(getPath(1, "unknown")));
+        filter.addDynamicComponents(Collections.<String, Resource>emptyMap());
+        assertSame(registry, filter.getRegistry());
+    }
+
+    /**
+     * The writers add and remove their batches as a whole so a snapshot must contain a batch
+     * completely or not at all and its Output must list exactly its components
+     */
+    private static void assertConsistent(Registry registry) {
+        Map<String, Integer> batches = new LinkedHashMap<>();
+        for(String path: registry.getComponents().keySet()) {
+            String batch = path.substring(0, path.lastIndexOf('-'));
+            Integer count = batches.get(batch);
+            batches.put(batch, count == null ? 1 : count + 1);
+        }
+        for(Map.Entry<String, Integer> batch: batches.entrySet()) {
+            if(batch.getKey().endsWith("-fixed")) {
+                continue;
+            }
+            if(batch.getValue() != BATCH_SIZE) {
+                // Odd batches are removed one by one and so may be partially removed
+                int iteration = Integer.parseInt(batch.getKey().substring(batch.getKey().lastIndexOf('-') + 1));
+                assertFalse("Batch partially added: " + batch.getKey(), iteration % 2 == 0);
+            }
+        }
+        assertEquals("Output does not match the components", registry.getComponents().size(), countEntries(registry));
+        try {
+            registry.getComponents().put("/apps/test/illegal", null);
+            fail("Components of a Registry must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    private static int countEntries(Registry registry) {
+        String fragment = new String(registry.getOutput().getFragment(), UTF_8);
+        int answer = 0;
+        int index = 0;
+        while((index = fragment.indexOf("\"path\":", index)) >= 0) {
+            answer++;
+            index++;
+        }
+        return answer;
+    }
+
+    private static Map<String, Resource> createBatch(int writer, int iteration) {
+        Map<String, Resource> answer = new LinkedHashMap<>();
+        for(int i = 0; i < BATCH_SIZE; i++) {
+            String path = getPath(writer, iteration + "-" + i);
+            answer.put(path, createComponent(path));
+        }
+        return answer;
+    }
+
+    /** @return Path of the component, the batch is the path up to the last dash **/
+    private static String getPath(int writer, String name) {
+        return TARGET_ROOT_PATH + "/writer-" + writer + "/component-" + name + ("fixed".equals(name) ? "-0" : "");
+    }
+
+    private static Resource createComponent(String path) {
+        final Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("jcr:title", "Component " + path.substring(path.lastIndexOf('/') + 1));
+        properties.put("componentGroup", "Test");
+        return new SyntheticResource(null, path, "test/component") {
+            @Override
+            public ValueMap getValueMap() {
+                return new ValueMapDecorator(properties);
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.DynamicComponentsOutput;
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The fragment is spliced into the upstream Components List as is so every title must
+ * come out as valid JSon with exactly the characters of the repository.
+ */
+public class JsonFragmentWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testEscapedTitleIsParsedBack() {
+        StringBuilder title = new StringBuilder("Quote \" Backslash \\ Slash / ");
+        for(char c = 0; c < 0x20; c++) {
+            title.append(c);
+        }
+        title.append('\u007f').append(" Umlaut ü Euro € CJK 中文 Emoji \ud83d\ude00 Separators \u2028\u2029");
+        JsonObject entry = parse(write("wknd/components/\"title\"", title.toString(), null))
+            .getJsonObject("wknd/components/\"title\"");
+        assertEquals(title.toString(), entry.getString("title"));
+        assertTrue(entry.isNull("iconName"));
+    }
+
+    @Test
+    public void testLineSeparatorsAreEscaped() {
+        byte[] fragment = write("wknd/components/text", "Line\u2028Paragraph\u2029", "text");
+        // Raw U+2028 and U+2029 end a line in JavaScript
+        String content = new String(fragment, UTF_8);
+        assertFalse(content.contains("\u2028"));
+        assertFalse(content.contains("\u2029"));
+        assertTrue(content.contains("\\u2028") && content.contains("\\u2029"));
+    }
+
+    @Test
+    public void testUnpairedSurrogateIsReplaced() {
+        JsonObject entry = parse(write("wknd/components/text", "High \ud83d Low \ude00", "text")).getJsonObject("wknd/components/text");
+        assertEquals("High ? Low ?", entry.getString("title"));
+    }
+
+    @Test
+    public void testBufferGrowsAcrossEntries() {
+        JsonFragmentWriter writer = new JsonFragmentWriter(0);
+        for(int i = 0; i < 100; i++) {
+            writer.beginEntry("wknd/components/component-" + i)
+                .property("path", "/apps/wknd/components/component-" + i)
+                .property("title", "Komponente äöü " + i)
+                .endEntry();
+        }
+        byte[] fragment = writer.toByteArray();
+        assertEquals(fragment.length, writer.size());
+        JsonObject document = parse(fragment);
+        assertEquals(100, document.size());
+        assertEquals("Komponente äöü 42", document.getJsonObject("wknd/components/component-42").getString("title"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEntryMustBeEnded() {
+        new JsonFragmentWriter(16).beginEntry("wknd/components/text").property("title", "Text").toByteArray();
+    }
+
+    private static byte[] write(String name, String title, String icon) {
+        return new JsonFragmentWriter(16)
+            .beginEntry(name)
+            .property("title", title)
+            .property("iconName", icon)
+            .endEntry()
+            .toByteArray();
+    }
+
+    /** @return Object of the fragment as it is served for the client merge **/
+    private static JsonObject parse(byte[] fragment) {
+        byte[] document = new DynamicComponentsOutput(fragment).getDocument();
+        try (JsonReader reader = Json.createReaderFactory(null).createReader(new ByteArrayInputStream(document), UTF_8)) {
+            return reader.readObject();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.dynamic.aem.ResponseCache.Entry;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Response Cache must stay within its byte budget and never serve an entry of
+ * another Registry version.
+ */
+public class ResponseCacheTest {
+
+    private static final long VERSION = 7;
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ResponseCache cache = new ResponseCache(400, ResponseCache.DEFAULT_TIME_TO_LIVE);
+        for(String key: new String[] {"a", "b", "c", "d"}) {
+            cache.put(key, entry(100, VERSION));
+        }
+        assertEquals(4, cache.size());
+        assertEquals(400, cache.getBytes());
+        // Reading "a" makes "b" the least recently used one
+        assertNotNull(cache.get("a", VERSION));
+        cache.put("e", entry(100, VERSION));
+        assertNull(cache.get("b", VERSION));
+        assertNotNull(cache.get("a", VERSION));
+        assertEquals(4, cache.size());
+        assertEquals(400, cache.getBytes());
+
+        // Replacing an entry only counts its new size
+        Entry replaced = entry(50, VERSION);
+        cache.put("e", replaced);
+        assertSame(replaced, cache.get("e", VERSION));
+        assertEquals(350, cache.getBytes());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testLargeEntryIsNotCached() {
+        ResponseCache cache = new ResponseCache(400, ResponseCache.DEFAULT_TIME_TO_LIVE);
+        cache.put("a", entry(100, VERSION));
+        cache.put("large", entry(101, VERSION));
+        assertNull(cache.get("large", VERSION));
+        assertEquals(1, cache.size());
+        assertEquals(100, cache.getBytes());
+    }
+
+    @Test
+    public void testEntryOfOtherVersionIsRemoved() {
+        ResponseCache cache = new ResponseCache(400, ResponseCache.DEFAULT_TIME_TO_LIVE);
+        cache.put("a", entry(100, VERSION));
+        assertNull(cache.get("a", VERSION + 1));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testEntryExpires() throws Exception {
+        ResponseCache cache = new ResponseCache(400, 0);
+        cache.put("a", entry(100, VERSION));
+        Thread.sleep(5);
+        assertNull(cache.get("a", VERSION));
+        assertEquals(0, cache.getBytes());
+    }
+
+    private static Entry entry(int size, long version) {
+        return new Entry(new byte[size], "application/json;charset=utf-8", Collections.<String, List<String>>emptyMap(), -1, version);
+    }
+}
@@ -0,0 +1,210 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.DynamicComponentsOutput;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The upstream Components List reaches the Splice Stream in arbitrary pieces: plain,
+ * as a single GZip member or as several members (a flush of the upstream GZip stream).
+ * Whatever the pieces are the spliced result must be the upstream list with the Dynamic
+ * Components added.
+ */
+public class SpliceServletOutputStreamTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String UPSTREAM =
+        "{\"wknd/components/title\":{\"path\":\"/apps/wknd/components/title\",\"title\":\"Title\"}," +
+        "\"wknd/components/text\":{\"path\":\"/apps/wknd/components/text\",\"title\":\"Text \\u00fc\"}}\n  ";
+    /** Sizes of the pieces the upstream is written in. The last one writes it at once **/
+    private static final int[] PIECES = {1, 2, 3, 7, 10, 11, 64, Integer.MAX_VALUE};
+
+    private final DynamicComponentsOutput output = new DynamicComponentsOutput(
+        new JsonFragmentWriter(256)
+            .beginEntry("wknd/components/button")
+            .property("path", "/apps/wknd/components/button")
+            .property("title", "Button")
+            .endEntry()
+            .beginEntry("wknd/components/teaser")
+            .property("path", "/apps/wknd/components/teaser")
+            .property("title", "Teaser ä")
+            .endEntry()
+            .toByteArray()
+    );
+    private final CompressionPool compressionPool = new CompressionPool(6, CompressionPool.DEFAULT_MAXIMUM_IDLE);
+
+    @After
+    public void tearDown() {
+        compressionPool.close();
+    }
+
+    @Test
+    public void testPlainUpstream() throws IOException {
+        for(int piece: PIECES) {
+            byte[] spliced = splice(UPSTREAM.getBytes(UTF_8), piece, true, false);
+            assertSpliced(parse(spliced));
+            // The trailing whitespace is dropped with the closing bracket
+            assertEquals('}', spliced[spliced.length - 1]);
+        }
+    }
+
+    @Test
+    public void testSingleMemberGzip() throws IOException {
+        byte[] upstream = gzip(UPSTREAM.getBytes(UTF_8));
+        for(int piece: PIECES) {
+            assertSpliced(parse(gunzip(splice(upstream, piece, true, false))));
+            // Without recompression the client gets the plain list
+            assertSpliced(parse(splice(upstream, piece, false, false)));
+        }
+    }
+
+    @Test
+    public void testMultiMemberGzip() throws IOException {
+        byte[] content = UPSTREAM.getBytes(UTF_8);
+        int middle = content.length / 2;
+        ByteArrayOutputStream upstream = new ByteArrayOutputStream();
+        upstream.write(gzip(Arrays.copyOfRange(content, 0, 1)));
+        // A member with the optional name and comment fields in its header
+        upstream.write(gzipMember(Arrays.copyOfRange(content, 1, middle), "components.json", "first half"));
+        upstream.write(gzip(Arrays.copyOfRange(content, middle, content.length)));
+        for(int piece: PIECES) {
+            assertSpliced(parse(gunzip(splice(upstream.toByteArray(), piece, true, false))));
+            assertSpliced(parse(splice(upstream.toByteArray(), piece, false, false)));
+        }
+    }
+
+    @Test
+    public void testClosingBracketIsHeldBack() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        SpliceServletOutputStream splice = new SpliceServletOutputStream(target, output, compressionPool, true);
+        splice.write("{\"a\":{}".getBytes(UTF_8));
+        splice.write('}');
+        splice.write(" \n".getBytes(UTF_8));
+        assertEquals("{\"a\":{}", new String(target.toByteArray(), UTF_8));
+        splice.finish();
+        assertEquals("{\"a\":{}" + new String(output.getFragment(), UTF_8) + "}", new String(target.toByteArray(), UTF_8));
+        assertEquals(10, splice.getUpstreamBytes());
+        assertEquals(target.size(), splice.getSplicedBytes());
+    }
+
+    @Test
+    public void testDeclaredLengthKeepsTrailingWhitespace() throws IOException {
+        byte[] upstream = UPSTREAM.getBytes(UTF_8);
+        for(int piece: PIECES) {
+            byte[] spliced = splice(upstream, piece, true, true);
+            // The Content Length was declared as the upstream length plus the fragment
+            assertEquals(upstream.length + output.getFragment().length, spliced.length);
+            assertTrue(new String(spliced, UTF_8).endsWith("}\n  "));
+            assertSpliced(parse(spliced));
+        }
+    }
+
+    @Test
+    public void testDeclaredLengthIsPaddedIfNotSpliced() throws IOException {
+        byte[] upstream = "[\"not\",\"an\",\"object\"]".getBytes(UTF_8);
+        byte[] spliced = splice(upstream, 5, true, true);
+        assertEquals(upstream.length + output.getFragment().length, spliced.length);
+        assertArrayEquals(upstream, Arrays.copyOf(spliced, upstream.length));
+        for(int i = upstream.length; i < spliced.length; i++) {
+            assertEquals(' ', spliced[i]);
+        }
+        // Without a declared length the content is passed on as is
+        assertArrayEquals(upstream, splice(upstream, 5, true, false));
+    }
+
+    private void assertSpliced(JsonObject components) {
+        assertEquals(4, components.size());
+        assertEquals("Title", components.getJsonObject("wknd/components/title").getString("title"));
+        assertEquals("Text ü", components.getJsonObject("wknd/components/text").getString("title"));
+        assertEquals("Button", components.getJsonObject("wknd/components/button").getString("title"));
+        assertEquals("Teaser ä", components.getJsonObject("wknd/components/teaser").getString("title"));
+    }
+
+    /** @return Content written to the client for the upstream written in pieces of the given size **/
+    private byte[] splice(byte[] upstream, int piece, boolean recompress, boolean lengthDeclared) throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        SpliceServletOutputStream splice = new SpliceServletOutputStream(target, output, compressionPool, recompress);
+        if(lengthDeclared) {
+            splice.setLengthDeclared();
+        }
+        for(int offset = 0; offset < upstream.length; offset += piece) {
+            splice.write(upstream, offset, Math.min(piece, upstream.length - offset));
+        }
+        splice.finish();
+        return target.toByteArray();
+    }
+
+    private static JsonObject parse(byte[] content) {
+        try (JsonReader reader = Json.createReaderFactory(null).createReader(new ByteArrayInputStream(content), UTF_8)) {
+            return reader.readObject();
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(answer)) {
+            gzip.write(content);
+        }
+        return answer.toByteArray();
+    }
+
+    /** @return GZip Member (RFC 1952) with the name and comment set in its header **/
+    private static byte[] gzipMember(byte[] content, String name, String comment) throws IOException {
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        answer.write(new byte[] {0x1f, (byte) 0x8b, 8, 8 | 16, 0, 0, 0, 0, 0, (byte) 255});
+        answer.write(name.getBytes(UTF_8));
+        answer.write(0);
+        answer.write(comment.getBytes(UTF_8));
+        answer.write(0);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] buffer = new byte[1024];
+        while(!deflater.finished()) {
+            answer.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        writeInt(answer, crc.getValue());
+        writeInt(answer, content.length);
+        return answer.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream target, long value) {
+        for(int i = 0; i < 4; i++) {
+            target.write((int) (value >> (8 * i)) & 0xff);
+        }
+    }
+
+    /** @return Content of all GZip Members **/
+    private static byte[] gunzip(byte[] content) throws IOException {
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            byte[] buffer = new byte[1024];
+            int count;
+            while((count = gzip.read(buffer)) >= 0) {
+                answer.write(buffer, 0, count);
+            }
+        }
+        return answer.toByteArray();
+    }
+}
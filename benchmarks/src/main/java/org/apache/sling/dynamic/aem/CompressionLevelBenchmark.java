@@ -0,0 +1,133 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.DynamicComponentsOutput;
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.PropertyHierarchy;
+import org.apache.sling.dynamic.benchmarks.InMemoryRepository;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.DYNAMIC_PREFIX;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.PROVIDER_ROOT_PATH;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.TARGET_ROOT_PATH;
+
+/**
+ * Splice of a gzip upstream Components List (2000 components) with 1000 Dynamic
+ * Components for each Compression Level, with pooled Inflaters / Deflaters and
+ * with a new Inflater / Deflater per request (no idle instances). The decompressed
+ * splice is the 'negotiate' mode for a client that does not accept gzip.
+ *
+ * The number of bytes sent to the client for each level is reported as the
+ * 'splicedBytes' secondary result. JMH sums events over the measurement
+ * iterations so it has to be divided by their count ('Cnt').
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionLevelBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int UPSTREAM_COMPONENTS = 2000;
+    private static final int DYNAMIC_COMPONENTS = 1000;
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    private DynamicComponentsOutput output;
+    private CompressionPool compressionPool;
+    private byte[] upstreamCompressed;
+
+    @Setup
+    public void setup() throws IOException {
+        InMemoryRepository repository = InMemoryRepository.createComponents(0, DYNAMIC_COMPONENTS);
+        SuperTypeCache superTypeCache = new SuperTypeCache();
+        Map<String, PropertyHierarchy> components = new LinkedHashMap<>();
+        for(int i = 0; i < DYNAMIC_COMPONENTS; i++) {
+            components.put(
+                TARGET_ROOT_PATH + "/" + DYNAMIC_PREFIX + i,
+                new PropertyHierarchy(repository.getResource(PROVIDER_ROOT_PATH + "/" + DYNAMIC_PREFIX + i), superTypeCache)
+            );
+        }
+        output = new DynamicComponentsOutput(DynamicComponentFilter.compileDynamicComponentsOutput(components));
+        compressionPool = new CompressionPool(level, pooled ? CompressionPool.DEFAULT_MAXIMUM_IDLE : 0);
+        byte[] upstreamPlain = createUpstreamList().getBytes(UTF_8);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(upstreamPlain);
+        }
+        upstreamCompressed = compressed.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        compressionPool.close();
+    }
+
+    private static String createUpstreamList() {
+        StringBuilder answer = new StringBuilder("{");
+        for(int i = 0; i < UPSTREAM_COMPONENTS; i++) {
+            String resourceType = "wknd/components/upstream-" + i;
+            answer.append(i == 0 ? "" : ",")
+                .append("\"").append(resourceType).append("\": {")
+                .append("\"path\":\"/apps/").append(resourceType).append("\"")
+                .append(",\"group\":\"WKND.Content\"")
+                .append(",\"title\":\"Upstream ").append(i).append("\"")
+                .append(",\"resourceType\":\"").append(resourceType).append("\"")
+                .append(",\"iconName\":\"text\"}");
+        }
+        return answer.append("}\n").toString();
+    }
+
+    /** Size of the Components List sent to the client, reported next to the time of a splice **/
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+        public long splicedBytes;
+    }
+
+    @Benchmark
+    public byte[] spliceCompressed(Sizes sizes) throws IOException {
+        byte[] answer = splice(true);
+        sizes.splicedBytes = answer.length;
+        return answer;
+    }
+
+    @Benchmark
+    public byte[] spliceDecompressed(Sizes sizes) throws IOException {
+        byte[] answer = splice(false);
+        sizes.splicedBytes = answer.length;
+        return answer;
+    }
+
+    private byte[] splice(boolean recompress) throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream(upstreamCompressed.length * (recompress ? 2 : 8));
+        SpliceServletOutputStream splice = new SpliceServletOutputStream(target, output, compressionPool, recompress);
+        splice.write(upstreamCompressed, 0, upstreamCompressed.length);
+        splice.finish();
+        return target.toByteArray();
+    }
+}
@@ -0,0 +1,165 @@
+package org.apache.sling.dynamic.aem;
+
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.DynamicComponentsOutput;
+import org.apache.sling.dynamic.aem.DynamicComponentFilter.PropertyHierarchy;
+import org.apache.sling.dynamic.benchmarks.InMemoryRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.DYNAMIC_PREFIX;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.PROVIDER_ROOT_PATH;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.TARGET_ROOT_PATH;
+
+/**
+ * Output of the Dynamic Components in the Components List: compiling the
+ * JSon fragment, compressing it when the Registry changes and splicing it
+ * into a gzip or plain upstream list of 500 components on every request.
+ * The gzip round trip also decompresses the spliced response like a client.
+ * The concatenated compile is the former unescaped String Builder version
+ * and serves as baseline for the JSon Fragment Writer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DynamicComponentsOutputBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int UPSTREAM_COMPONENTS = 500;
+
+    @Param({"10", "100", "1000"})
+    public int dynamicComponents;
+
+    private Map<String, PropertyHierarchy> components;
+    private byte[] fragment;
+    private DynamicComponentsOutput output;
+    private CompressionPool compressionPool;
+    private byte[] upstreamPlain;
+    private byte[] upstreamCompressed;
+
+    @Setup
+    public void setup() throws IOException {
+        InMemoryRepository repository = InMemoryRepository.createComponents(0, dynamicComponents);
+        SuperTypeCache superTypeCache = new SuperTypeCache();
+        components = new LinkedHashMap<>();
+        for(int i = 0; i < dynamicComponents; i++) {
+            components.put(
+                TARGET_ROOT_PATH + "/" + DYNAMIC_PREFIX + i,
+                new PropertyHierarchy(repository.getResource(PROVIDER_ROOT_PATH + "/" + DYNAMIC_PREFIX + i), superTypeCache)
+            );
+        }
+        fragment = DynamicComponentFilter.compileDynamicComponentsOutput(components);
+        output = new DynamicComponentsOutput(fragment);
+        compressionPool = new CompressionPool(Deflater.DEFAULT_COMPRESSION, CompressionPool.DEFAULT_MAXIMUM_IDLE);
+        upstreamPlain = createUpstreamList().getBytes(UTF_8);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(upstreamPlain);
+        }
+        upstreamCompressed = compressed.toByteArray();
+    }
+
+    private static String createUpstreamList() {
+        StringBuilder answer = new StringBuilder("{");
+        for(int i = 0; i < UPSTREAM_COMPONENTS; i++) {
+            String resourceType = "wknd/components/upstream-" + i;
+            answer.append(i == 0 ? "" : ",")
+                .append("\"").append(resourceType).append("\": {")
+                .append("\"path\":\"/apps/").append(resourceType).append("\"")
+                .append(",\"group\":\"WKND.Content\"")
+                .append(",\"title\":\"Upstream ").append(i).append("\"")
+                .append(",\"resourceType\":\"").append(resourceType).append("\"")
+                .append(",\"iconName\":\"text\"}");
+        }
+        return answer.append("}\n").toString();
+    }
+
+    @Benchmark
+    public byte[] compileOutput() {
+        return DynamicComponentFilter.compileDynamicComponentsOutput(components);
+    }
+
+    @Benchmark
+    public byte[] compileOutputConcatenated() {
+        StringBuilder answer = new StringBuilder();
+        for(Map.Entry<String, PropertyHierarchy> entry: components.entrySet()) {
+            String dynamicPath = entry.getKey();
+            int index = dynamicPath.indexOf('/', 1);
+            String resourceType = dynamicPath.substring(index + 1);
+            answer.append(",\"").append(resourceType).append("\": {")
+                .append("\"path\":\"").append(dynamicPath).append("\"");
+            PropertyHierarchy propertyHierarchy = entry.getValue();
+            if(propertyHierarchy.containsKey("componentGroup")) {
+                answer.append(",\"group\":\"").append(propertyHierarchy.get("componentGroup", "weird-group")).append("\"");
+            }
+            if(propertyHierarchy.containsKey("jcr:title")) {
+                answer.append(",\"title\":\"").append(propertyHierarchy.get("jcr:title", "weird-title")).append("\"");
+            }
+            answer.append(",\"resourceType\":\"").append(resourceType).append("\"");
+            if(propertyHierarchy.containsKey("cq:icon")) {
+                answer.append(",\"iconName\":\"").append(propertyHierarchy.get("cq:icon", "weird-icon")).append("\"");
+            }
+            answer.append("}");
+        }
+        return answer.toString().getBytes(UTF_8);
+    }
+
+    @Benchmark
+    public byte[] compileAndCompressOutput() {
+        return new DynamicComponentsOutput(DynamicComponentFilter.compileDynamicComponentsOutput(components)).getCompressedTail(compressionPool);
+    }
+
+    @Benchmark
+    public byte[] splicePlain() throws IOException {
+        return splice(upstreamPlain);
+    }
+
+    @Benchmark
+    public byte[] spliceCompressed() throws IOException {
+        return splice(upstreamCompressed);
+    }
+
+    @Benchmark
+    public int spliceCompressedRoundTrip() throws IOException {
+        byte[] spliced = splice(upstreamCompressed);
+        int answer = 0;
+        byte[] buffer = new byte[8192];
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(spliced))) {
+            int read;
+            while((read = gzip.read(buffer)) >= 0) {
+                answer += read;
+            }
+        }
+        return answer;
+    }
+
+    private byte[] splice(byte[] upstream) throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream(upstream.length + output.getCompressedTail(compressionPool).length);
+        SpliceServletOutputStream splice = new SpliceServletOutputStream(target, output, compressionPool, true);
+        splice.write(upstream, 0, upstream.length);
+        splice.finish();
+        return target.toByteArray();
+    }
+}
@@ -0,0 +1,289 @@
+package org.apache.sling.dynamic.benchmarks;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.spi.resource.provider.ResolveContext;
+import org.apache.sling.spi.resource.provider.ResourceContext;
+import org.apache.sling.spi.resource.provider.ResourceProvider;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.sling.dynamic.common.Constants.SLING_RESOURCE_SUPER_TYPE_PROPERTY;
+
+/**
+ * In-Memory stand-in for the Repository with a Resource Resolver, a Parent Resource Provider
+ * and a Resolve Context on top of it. Only the methods used by the Dynamic Component code
+ * are supported, all others throw an Unsupported Operation Exception.
+ *
+ * The Repository is only changed while a Benchmark is set up and so it is not thread-safe.
+ */
+public class InMemoryRepository {
+
+    public static final String TARGET_ROOT_PATH = "/apps/wknd/components";
+    public static final String PROVIDER_ROOT_PATH = "/apps/dynamic/components";
+    public static final String SUPER_TYPE = "core/wcm/components/text/v2/text";
+    public static final String STATIC_PREFIX = "static-";
+    public static final String DYNAMIC_PREFIX = "dynamic-";
+
+    private static final String[] SEARCH_PATH = new String[] {"/apps/", "/libs/"};
+
+    private final Map<String, InMemoryResource> resources = new HashMap<>();
+    private final Map<String, List<Resource>> children = new HashMap<>();
+    private final ResourceResolver resourceResolver;
+    private final ResourceProvider<Object> parentResourceProvider;
+    private final ResolveContext<Object> resolveContext;
+
+    /**
+     * Creates a Repository with the given number of Components in the Target Root (static)
+     * and in the Provider Root (dynamic). Each Component has the typical Component properties
+     * and the dynamic ones point to a Super Type in /libs.
+     *
+     * @param staticComponents Number of Components named 'static-n' in the Target Root
+     * @param dynamicComponents Number of Components named 'dynamic-n' in the Provider Root
+     * @return Repository with the Components
+     */
+    public static InMemoryRepository createComponents(int staticComponents, int dynamicComponents) {
+        InMemoryRepository answer = new InMemoryRepository();
+        answer.addFolder(TARGET_ROOT_PATH);
+        answer.addFolder(PROVIDER_ROOT_PATH);
+        Map<String, Object> superType = new HashMap<>();
+        superType.put("jcr:primaryType", "cq:Component");
+        superType.put("jcr:title", "Text");
+        superType.put("componentGroup", ".core-wcm");
+        superType.put("cq:icon", "text");
+        answer.add("/libs/" + SUPER_TYPE, "cq:Component", superType);
+        for(int i = 0; i < staticComponents; i++) {
+            answer.add(TARGET_ROOT_PATH + "/" + STATIC_PREFIX + i, "cq:Component", createComponentProperties(STATIC_PREFIX + i, null));
+        }
+        for(int i = 0; i < dynamicComponents; i++) {
+            answer.add(PROVIDER_ROOT_PATH + "/" + DYNAMIC_PREFIX + i, "cq:Component", createComponentProperties(DYNAMIC_PREFIX + i, SUPER_TYPE));
+        }
+        return answer;
+    }
+
+    private static Map<String, Object> createComponentProperties(String name, String superType) {
+        Map<String, Object> answer = new HashMap<>();
+        answer.put("jcr:primaryType", "cq:Component");
+        answer.put("jcr:title", "Component " + name);
+        answer.put("componentGroup", "WKND.Content");
+        answer.put("cq:icon", "text");
+        answer.put("cq:isContainer", Boolean.FALSE);
+        answer.put("cq:allowedParents", new String[] {"*/parsys", "*/*layout"});
+        if(superType != null) {
+            answer.put(SLING_RESOURCE_SUPER_TYPE_PROPERTY, superType);
+        }
+        return answer;
+    }
+
+    public InMemoryRepository() {
+        resourceResolver = createProxy(ResourceResolver.class, new ResourceResolverHandler());
+        parentResourceProvider = new InMemoryResourceProvider();
+        resolveContext = createProxy(ResolveContext.class, new ResolveContextHandler());
+    }
+
+    /**
+     * Adds the given Folder and all its missing parents
+     *
+     * @param path Absolute path of the Folder
+     * @return The Folder Resource
+     */
+    public InMemoryResource addFolder(String path) {
+        InMemoryResource answer = resources.get(path);
+        if(answer == null) {
+            answer = add(path, "sling:Folder", Collections.<String, Object>singletonMap("jcr:primaryType", "sling:Folder"));
+        }
+        return answer;
+    }
+
+    /**
+     * Adds a Resource. The missing parents are added as Folders.
+     *
+     * @param path Absolute path of the Resource
+     * @param resourceType Resource Type of the Resource
+     * @param properties Properties of the Resource
+     * @return The added Resource
+     */
+    public InMemoryResource add(String path, String resourceType, Map<String, Object> properties) {
+        int slash = path.lastIndexOf('/');
+        if(slash > 0) {
+            addFolder(path.substring(0, slash));
+        }
+        InMemoryResource answer = new InMemoryResource(this, path, resourceType, properties);
+        resources.put(path, answer);
+        if(slash >= 0) {
+            String parentPath = slash == 0 ? "/" : path.substring(0, slash);
+            List<Resource> siblings = children.get(parentPath);
+            if(siblings == null) {
+                siblings = new ArrayList<>();
+                children.put(parentPath, siblings);
+            }
+            siblings.add(answer);
+        }
+        return answer;
+    }
+
+    public Resource getResource(String path) {
+        return resources.get(path);
+    }
+
+    /** @return Iterator over the Children of the given path or null if there are none **/
+    public Iterator<Resource> listChildren(String path) {
+        List<Resource> answer = children.get(path);
+        return answer == null ? null : answer.iterator();
+    }
+
+    public ResourceResolver getResourceResolver() {
+        return resourceResolver;
+    }
+
+    /** @return Resolve Context whose Parent Resource Provider serves this Repository **/
+    public ResolveContext<Object> getResolveContext() {
+        return resolveContext;
+    }
+
+    /** @return Bundle that accepts any Service Registration without an OSGi Framework **/
+    public static Bundle createBundle() {
+        final ServiceReference<?> reference = createProxy(ServiceReference.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if(method.getName().equals("getProperty") && Constants.SERVICE_ID.equals(args[0])) {
+                    return 1L;
+                }
+                return handleObjectMethods(proxy, method, args);
+            }
+        });
+        final ServiceRegistration<?> registration = createProxy(ServiceRegistration.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch(method.getName()) {
+                    case "getReference":
+                        return reference;
+                    case "unregister":
+                    case "setProperties":
+                        return null;
+                    default:
+                        return handleObjectMethods(proxy, method, args);
+                }
+            }
+        });
+        final BundleContext bundleContext = createProxy(BundleContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if(method.getName().equals("registerService")) {
+                    return registration;
+                }
+                return handleObjectMethods(proxy, method, args);
+            }
+        });
+        return createProxy(Bundle.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch(method.getName()) {
+                    case "getBundleId":
+                        return 1L;
+                    case "getBundleContext":
+                        return bundleContext;
+                    default:
+                        return handleObjectMethods(proxy, method, args);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createProxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(InMemoryRepository.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object handleObjectMethods(Object proxy, Method method, Object[] args) {
+        switch(method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "InMemory" + proxy.getClass().getInterfaces()[0].getSimpleName();
+            default:
+                throw new UnsupportedOperationException("Not supported by the In-Memory Repository: " + method);
+        }
+    }
+
+    private class ResourceResolverHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch(method.getName()) {
+                case "getResource":
+                    if(args.length == 1) {
+                        return getResource((String) args[0]);
+                    }
+                    String path = (String) args[1];
+                    return getResource(path.startsWith("/") ? path : ((Resource) args[0]).getPath() + "/" + path);
+                case "listChildren":
+                    Iterator<Resource> answer = listChildren(((Resource) args[0]).getPath());
+                    return answer == null ? Collections.<Resource>emptyIterator() : answer;
+                case "getChildren":
+                    List<Resource> list = children.get(((Resource) args[0]).getPath());
+                    return list == null ? Collections.<Resource>emptyList() : list;
+                case "hasChildren":
+                    return children.containsKey(((Resource) args[0]).getPath());
+                case "isResourceType":
+                    // Super Types are not followed
+                    return args[1].equals(((Resource) args[0]).getResourceType());
+                case "getSearchPath":
+                    return SEARCH_PATH.clone();
+                case "isLive":
+                    return true;
+                case "close":
+                case "refresh":
+                case "adaptTo":
+                    return null;
+                default:
+                    return handleObjectMethods(proxy, method, args);
+            }
+        }
+    }
+
+    private class ResolveContextHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch(method.getName()) {
+                case "getResourceResolver":
+                    return resourceResolver;
+                case "getParentResourceProvider":
+                    return parentResourceProvider;
+                case "getParentResolveContext":
+                    return proxy;
+                case "getProviderState":
+                    return null;
+                default:
+                    return handleObjectMethods(proxy, method, args);
+            }
+        }
+    }
+
+    /** Parent Resource Provider that serves the Resources of this Repository **/
+    private class InMemoryResourceProvider extends ResourceProvider<Object> {
+        @Override
+        public Resource getResource(ResolveContext<Object> ctx, String path, ResourceContext resourceContext, Resource parent) {
+            return resources.get(path);
+        }
+
+        @Override
+        public Iterator<Resource> listChildren(ResolveContext<Object> ctx, Resource parent) {
+            return InMemoryRepository.this.listChildren(parent.getPath());
+        }
+    }
+}
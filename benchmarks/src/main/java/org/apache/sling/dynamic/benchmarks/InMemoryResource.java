@@ -0,0 +1,78 @@
+package org.apache.sling.dynamic.benchmarks;
+
+import org.apache.sling.api.resource.AbstractResource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.sling.dynamic.common.Constants.SLING_RESOURCE_SUPER_TYPE_PROPERTY;
+
+/**
+ * Resource of the In-Memory Repository. Its children are obtained
+ * through the Resource Resolver of the Repository.
+ */
+public class InMemoryResource
+    extends AbstractResource
+{
+    private final InMemoryRepository repository;
+    private final String path;
+    private final String resourceType;
+    private final ValueMap properties;
+    private final ResourceMetadata metadata = new ResourceMetadata();
+
+    InMemoryResource(InMemoryRepository repository, String path, String resourceType, Map<String, Object> properties) {
+        this.repository = repository;
+        this.path = path;
+        this.resourceType = resourceType;
+        this.properties = new ValueMapDecorator(new HashMap<>(properties));
+        this.metadata.setResolutionPath(path);
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    @Override
+    public String getResourceSuperType() {
+        return properties.get(SLING_RESOURCE_SUPER_TYPE_PROPERTY, String.class);
+    }
+
+    @Override
+    public ResourceMetadata getResourceMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public ResourceResolver getResourceResolver() {
+        return repository.getResourceResolver();
+    }
+
+    @Override
+    public ValueMap getValueMap() {
+        return properties;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+        if(type == ValueMap.class || type == Map.class) {
+            return (AdapterType) properties;
+        }
+        return super.adaptTo(type);
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryResource{path='" + path + "', resource-type='" + resourceType + "'}";
+    }
+}
@@ -0,0 +1,67 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.dynamic.benchmarks.InMemoryRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.DYNAMIC_PREFIX;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.PROVIDER_ROOT_PATH;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.TARGET_ROOT_PATH;
+
+/**
+ * Creation of a Dynamic Component from its Definition and the access
+ * to its properties through the Value Map.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DynamicComponentBenchmark {
+
+    private InMemoryRepository repository;
+    private DynamicComponentDefinition definition;
+    private Resource dynamicComponent;
+    private String targetPath;
+
+    @Setup
+    public void setup() {
+        repository = InMemoryRepository.createComponents(0, 1);
+        definition = DynamicComponentDefinition.create(repository.getResource(PROVIDER_ROOT_PATH + "/" + DYNAMIC_PREFIX + 0));
+        targetPath = TARGET_ROOT_PATH + "/" + DYNAMIC_PREFIX + 0;
+        dynamicComponent = DynamicComponent.createSyntheticFromDefinition(repository.getResourceResolver(), definition, targetPath);
+    }
+
+    @Benchmark
+    public Resource createFromDefinition() {
+        return DynamicComponent.createSyntheticFromDefinition(repository.getResourceResolver(), definition, targetPath);
+    }
+
+    @Benchmark
+    public ValueMap getValueMap() {
+        return dynamicComponent.getValueMap();
+    }
+
+    @Benchmark
+    public String getValueMapTitle() {
+        return dynamicComponent.getValueMap().get("jcr:title", String.class);
+    }
+
+    @Benchmark
+    public String[] getValueMapMultiValue() {
+        return dynamicComponent.getValueMap().get("cq:allowedParents", String[].class);
+    }
+}
@@ -0,0 +1,70 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.dynamic.benchmarks.InMemoryRepository;
+import org.apache.sling.spi.resource.provider.ResolveContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.PROVIDER_ROOT_PATH;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.TARGET_ROOT_PATH;
+
+/**
+ * Listing of the Target Root with 10 static Components and the given number
+ * of Dynamic Components. The first child measures the latency until the
+ * caller gets the first resource, all children the cost of a full listing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DynamicComponentListChildrenBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int dynamicComponents;
+
+    private DynamicComponentResourceProviderHandler handler;
+    private ResolveContext<Object> resolveContext;
+    private Resource targetRoot;
+
+    @Setup
+    public void setup() {
+        InMemoryRepository repository = InMemoryRepository.createComponents(10, dynamicComponents);
+        DynamicComponentTenant tenant = new DynamicComponentTenant(
+            TARGET_ROOT_PATH, PROVIDER_ROOT_PATH, DynamicComponentExistenceCache.DEFAULT_SIZE
+        );
+        tenant.refreshIndex(repository.getResource(PROVIDER_ROOT_PATH));
+        handler = new DynamicComponentResourceProviderHandler(tenant);
+        handler.registerService(InMemoryRepository.createBundle());
+        resolveContext = repository.getResolveContext();
+        targetRoot = repository.getResource(TARGET_ROOT_PATH);
+    }
+
+    @Benchmark
+    public Resource listFirstChild() {
+        return handler.listChildren(resolveContext, targetRoot).next();
+    }
+
+    @Benchmark
+    public void listAllChildren(Blackhole blackhole) {
+        Iterator<Resource> i = handler.listChildren(resolveContext, targetRoot);
+        while(i.hasNext()) {
+            blackhole.consume(i.next());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.dynamic.benchmarks.InMemoryRepository;
+import org.apache.sling.dynamic.common.DynamicComponentDiagnostics;
+import org.apache.sling.spi.resource.provider.ResolveContext;
+import org.apache.sling.spi.resource.provider.ResourceContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.DYNAMIC_PREFIX;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.PROVIDER_ROOT_PATH;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.STATIC_PREFIX;
+import static org.apache.sling.dynamic.benchmarks.InMemoryRepository.TARGET_ROOT_PATH;
+
+/**
+ * Resolution of a single Resource below the Target Root through the
+ * Dynamic Component Resource Provider: a component that exists in the
+ * Target Root (static), one that is only in the Provider Root (dynamic)
+ * and one that does not exist at all (miss).
+ *
+ * The Existence Cache (snapshot of the static children of the Target Root)
+ * lets the dynamic lookup skip the parent, size 0 disables it. The Diagnostic
+ * Mode 'trace' logs every lookup (into benchmarks.log).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DynamicComponentResourceProviderBenchmark {
+
+    @Param({"0", "1000"})
+    public int existenceCacheSize;
+
+    @Param({"off", "trace"})
+    public String diagnosticMode;
+
+    private DynamicComponentResourceProviderHandler handler;
+    private ResolveContext<Object> resolveContext;
+    private ResourceContext resourceContext = ResourceContext.EMPTY_CONTEXT;
+    private String staticPath;
+    private String dynamicPath;
+    private String missingPath;
+
+    @Setup
+    public void setup() {
+        InMemoryRepository repository = InMemoryRepository.createComponents(100, 100);
+        DynamicComponentDiagnostics diagnostics = new DynamicComponentDiagnostics();
+        diagnostics.configure(diagnosticMode, DynamicComponentDiagnostics.DEFAULT_SAMPLE_RATE);
+        DynamicComponentTenant tenant = new DynamicComponentTenant(TARGET_ROOT_PATH, PROVIDER_ROOT_PATH, existenceCacheSize);
+        tenant.refreshIndex(repository.getResource(PROVIDER_ROOT_PATH));
+        tenant.refreshStaticChildren(repository.getResource(TARGET_ROOT_PATH));
+        handler = new DynamicComponentResourceProviderHandler(tenant, diagnostics, new DynamicComponentMetricsService());
+        handler.registerService(InMemoryRepository.createBundle());
+        resolveContext = repository.getResolveContext();
+        staticPath = TARGET_ROOT_PATH + "/" + STATIC_PREFIX + 50;
+        dynamicPath = TARGET_ROOT_PATH + "/" + DYNAMIC_PREFIX + 50;
+        missingPath = TARGET_ROOT_PATH + "/missing";
+    }
+
+    @Benchmark
+    public Resource getResourceStatic() {
+        return handler.getResource(resolveContext, staticPath, resourceContext, null);
+    }
+
+    @Benchmark
+    public Resource getResourceDynamic() {
+        return handler.getResource(resolveContext, dynamicPath, resourceContext, null);
+    }
+
+    @Benchmark
+    public Resource getResourceMissing() {
+        return handler.getResource(resolveContext, missingPath, resourceContext, null);
+    }
+}
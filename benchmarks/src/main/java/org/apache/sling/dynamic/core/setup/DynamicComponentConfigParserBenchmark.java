@@ -0,0 +1,69 @@
+package org.apache.sling.dynamic.core.setup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a single-value and a multi-value entry of the Dynamic Component
+ * Configuration. The split variants reproduce the former String.split based
+ * parsing as baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DynamicComponentConfigParserBenchmark {
+
+    private static final String SINGLE = "button1=Button-1|core/wcm/components/button/v1/button";
+    private static final String MULTI = "container1=cq:styleElements|{div;section;article;main;aside;header;footer}";
+
+    private final DynamicComponentConfigParser parser = new DynamicComponentConfigParser();
+
+    @Benchmark
+    public DynamicComponentProperty parseSingle() {
+        return parser.parse(SINGLE, "Dynamic Component");
+    }
+
+    @Benchmark
+    public DynamicComponentProperty parseMulti() {
+        return parser.parse(MULTI, "Dynamic Additional Property");
+    }
+
+    @Benchmark
+    public DynamicComponentProperty splitSingle() {
+        return split(SINGLE);
+    }
+
+    @Benchmark
+    public DynamicComponentProperty splitMulti() {
+        return split(MULTI);
+    }
+
+    private static DynamicComponentProperty split(String line) {
+        String[] split = line.split("=");
+        String value = split[1];
+        String[] splitTemp = value.split("\\|");
+        value = splitTemp[1];
+        List<String> values = new ArrayList<>();
+        if(value.charAt(0) == '{' && value.charAt(value.length() - 1) == '}') {
+            values.addAll(Arrays.asList(value.substring(1, value.length() - 1).split(";")));
+        } else {
+            values.add(value);
+        }
+        return new DynamicComponentProperty(split[0], splitTemp[0], values);
+    }
+}
@@ -0,0 +1,64 @@
+package org.apache.sling.dynamic.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides if a single lookup is traced. The hot paths only log when this
+ * returns true so that with the default mode (off) no log call and no
+ * message formatting happens at all.
+ * The mode can be changed at runtime.
+ */
+public class DynamicComponentDiagnostics {
+
+    public enum Mode {
+        /** Nothing is traced **/
+        OFF,
+        /** Every n-th lookup is traced **/
+        SAMPLE,
+        /** Every lookup is traced **/
+        TRACE
+    }
+
+    public static final int DEFAULT_SAMPLE_RATE = 100;
+
+    private final AtomicLong counter = new AtomicLong();
+    private volatile Mode mode = Mode.OFF;
+    private volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    /**
+     * @param mode Name of the Mode (case insensitive). Unknown or empty names turn the diagnostics off
+     * @param sampleRate Every how many lookups one is traced in the Sample Mode
+     */
+    public void configure(String mode, int sampleRate) {
+        Mode newMode = Mode.OFF;
+        if(mode != null && !mode.trim().isEmpty()) {
+            try {
+                newMode = Mode.valueOf(mode.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                newMode = Mode.OFF;
+            }
+        }
+        this.sampleRate = sampleRate < 1 ? 1 : sampleRate;
+        this.mode = newMode;
+    }
+
+    /** @return True if the current lookup should be traced **/
+    public boolean isTraced() {
+        switch(mode) {
+            case OFF:
+                return false;
+            case TRACE:
+                return true;
+            default:
+                return counter.incrementAndGet() % sampleRate == 0;
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+}
@@ -2,7 +2,24 @@ package org.apache.sling.dynamic.common;
 
 import org.apache.sling.api.resource.Resource;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface DynamicComponentFilterNotifier {
     void addDynamicComponent(String dynamicComponentPath, Resource providedComponent);
     void removeDynamicComponent(String dynamicComponentPath);
+
+    /**
+     * Adds or replaces all given Dynamic Components with a single change of the Filter
+     *
+     * @param providedComponents Provided Components by their Dynamic Component Path
+     */
+    void addDynamicComponents(Map<String, Resource> providedComponents);
+
+    /**
+     * Removes all given Dynamic Components with a single change of the Filter
+     *
+     * @param dynamicComponentPaths Paths of the Dynamic Components to be removed
+     */
+    void removeDynamicComponents(Collection<String> dynamicComponentPaths);
 }
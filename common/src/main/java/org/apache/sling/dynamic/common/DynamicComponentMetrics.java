@@ -0,0 +1,72 @@
+package org.apache.sling.dynamic.common;
+
+import java.util.Map;
+
+/**
+ * Collects the Metrics of the Dynamic Components: lookups through the Resource Provider,
+ * listings of the Target Root, the Components List splice of the Filter and the setup
+ * and updates of the Resource Providers.
+ *
+ * Recording is called on the hot paths and so it must be cheap and must not block.
+ */
+public interface DynamicComponentMetrics {
+
+    /** Branch a Resource lookup took in the Resource Provider **/
+    enum Lookup {
+        /** Resource in or below the Provider Root **/
+        PROVIDER_ROOT,
+        /** The Target Root itself **/
+        TARGET_ROOT,
+        /** Dynamic Component below the Target Root **/
+        DYNAMIC_HIT,
+        /** Static Resource below the Target Root **/
+        STATIC_HIT,
+        /** Neither a static Resource nor a Dynamic Component below the Target Root **/
+        MISS,
+        /** Resource below a child of the Target Root that is only served from the repository **/
+        PASSTHROUGH
+    }
+
+    /**
+     * @param lookup Branch of the lookup
+     * @param nanos Duration of the lookup in nanoseconds
+     */
+    void recordLookup(Lookup lookup, long nanos);
+
+    /**
+     * @param existenceCacheHit True if the Existence of the looked up Resource was cached
+     */
+    void recordExistenceCache(boolean existenceCacheHit);
+
+    /**
+     * Records an Existence Cache miss that is caused by a Target Root with more static
+     * children than the Existence Cache may keep
+     */
+    void recordExistenceCacheOverflow();
+
+    /**
+     * @param dynamicChildren Number of Dynamic Components added to the listing
+     * @param nanos Duration until the listing was returned in nanoseconds
+     */
+    void recordListChildren(int dynamicChildren, long nanos);
+
+    /**
+     * @param addedBytes Number of bytes the Components List grew (or shrank) by the splice
+     * @param nanos Time spent splicing in nanoseconds
+     */
+    void recordSplice(long addedBytes, long nanos);
+
+    /**
+     * @param responseCacheHit True if the Components List was served from the Response Cache
+     */
+    void recordResponseCache(boolean responseCacheHit);
+
+    /** @param nanos Duration of the setup of a new Resource Provider (indexing and registration) in nanoseconds **/
+    void recordSetup(long nanos);
+
+    /** @param nanos Duration of an update of a Dynamic Provider in nanoseconds **/
+    void recordUpdate(long nanos);
+
+    /** @return Current Metrics by their name. The returned map is a snapshot **/
+    Map<String, Long> getMetrics();
+}
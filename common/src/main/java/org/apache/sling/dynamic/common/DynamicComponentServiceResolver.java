@@ -0,0 +1,74 @@
+package org.apache.sling.dynamic.common;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Long-lived Service Resource Resolver that is used to build the shared Index and
+ * Registry of the Dynamic Components. Everything read through it is the same for all
+ * users so that requests never have to read the provider data with their own session.
+ *
+ * A Resource Resolver is not thread-safe and so all work is serialized. The Resource
+ * Resolver is only refreshed right before a unit of work so that it sees the latest
+ * changes when the Index is built and otherwise keeps its session untouched. It is
+ * opened on first use and opened again if it is no longer live.
+ */
+public class DynamicComponentServiceResolver
+    implements Closeable
+{
+    /** Sub Service that reads the Dynamic Provider Folders and the Super Types **/
+    public static final String INDEX_SUBSERVICE = "dynamic-component-index";
+
+    /** Unit of work done with the Service Resource Resolver **/
+    public interface Work<T> {
+        /**
+         * @param resourceResolver Refreshed Service Resource Resolver. It must not be closed or kept
+         * @return Result of the work
+         */
+        T execute(ResourceResolver resourceResolver);
+    }
+
+    private final ResourceResolverFactory resourceResolverFactory;
+    private final Map<String, Object> authenticationInfo;
+    private ResourceResolver resourceResolver;
+
+    /**
+     * @param resourceResolverFactory Factory the Service Resource Resolver is obtained from
+     * @param subService Sub Service name mapped to the Service User of the calling bundle
+     */
+    public DynamicComponentServiceResolver(ResourceResolverFactory resourceResolverFactory, String subService) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.authenticationInfo = Collections.<String, Object>singletonMap(ResourceResolverFactory.SUBSERVICE, subService);
+    }
+
+    /**
+     * Executes the given work with the refreshed Service Resource Resolver
+     *
+     * @param work Work to be done
+     * @return Result of the work
+     * @throws LoginException If the Service Resource Resolver could not be obtained
+     */
+    public synchronized <T> T execute(Work<T> work) throws LoginException {
+        if(resourceResolver == null || !resourceResolver.isLive()) {
+            resourceResolver = resourceResolverFactory.getServiceResourceResolver(authenticationInfo);
+        } else {
+            resourceResolver.refresh();
+        }
+        return work.execute(resourceResolver);
+    }
+
+    @Override
+    public synchronized void close() {
+        if(resourceResolver != null) {
+            if(resourceResolver.isLive()) {
+                resourceResolver.close();
+            }
+            resourceResolver = null;
+        }
+    }
+}
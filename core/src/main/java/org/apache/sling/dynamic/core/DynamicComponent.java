@@ -5,26 +5,15 @@ import org.apache.sling.api.resource.ResourceMetadata;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.SyntheticResource;
 import org.apache.sling.api.resource.ValueMap;
-import org.apache.sling.api.wrappers.ValueMapDecorator;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
+
+import java.util.Collections;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import static org.apache.sling.dynamic.common.Constants.SLING_RESOURCE_SUPER_TYPE_PROPERTY;
 
 public class DynamicComponent
     extends SyntheticResource
 {
-    private static List<String> IGNORED_ATTRIBUTES = new ArrayList<>(Arrays.asList("jcr:created", SLING_RESOURCE_SUPER_TYPE_PROPERTY));
-
-    private static final Logger log = LoggerFactory.getLogger(DynamicComponent.class);
-
     /**
      * Creates a Resource that adds a Resource from a given location (source)
      * into a different location (target path)
@@ -35,65 +24,73 @@ public class DynamicComponent
      * @return The Synthetic Resource that will provide the Dynamic Resource
      */
     public static Resource createSyntheticFromResource(ResourceResolver resourceResolver, Resource source, String targetPath) {
-        ValueMap properties = source.getValueMap();
-        Map<String,String> parameters = new HashMap<>();
-        String resourceSuperType = source.getResourceSuperType();
-        for(Entry<String, Object> entry: properties.entrySet()) {
-            if(!IGNORED_ATTRIBUTES.contains(entry.getKey())) {
-                parameters.put(entry.getKey(), entry.getValue() + "");
-            }
-        }
+        return createSyntheticFromDefinition(resourceResolver, DynamicComponentDefinition.create(source), targetPath);
+    }
+
+    /**
+     * Creates a Resource from an already read Component Definition
+     * into a different location (target path)
+     *
+     * @param resourceResolver Resource Resolver to be used here
+     * @param definition Component Definition that provides the data
+     * @param targetPath Path of the new, dynamic location of the resource
+     * @return The Synthetic Resource that will provide the Dynamic Resource
+     */
+    public static Resource createSyntheticFromDefinition(ResourceResolver resourceResolver, DynamicComponentDefinition definition, String targetPath) {
         ResourceMetadata metadata = new ResourceMetadataWrapper();
-        metadata.setParameterMap(parameters);
         metadata.setResolutionPath(targetPath);
         metadata.setResolutionPathInfo(targetPath);
         metadata.setCreationTime(System.currentTimeMillis());
         return new DynamicComponent(
             resourceResolver,
             metadata,
-            source.getResourceType(),
-            resourceSuperType
+            definition
         );
     }
 
     public DynamicComponent(ResourceResolver resourceResolver, String path, String resourceType, String resourceSuperType) {
         super(resourceResolver, path, resourceType);
         this.resourceSuperType = resourceSuperType;
+        this.properties = createProperties(resourceSuperType);
     }
 
     public DynamicComponent(ResourceResolver resourceResolver, ResourceMetadata rm, String resourceType, String resourceSuperType) {
         super(resourceResolver, rm, resourceType);
         this.resourceSuperType = resourceSuperType;
+        this.properties = createProperties(resourceSuperType);
     }
 
-    private String resourceSuperType;
+    public DynamicComponent(ResourceResolver resourceResolver, ResourceMetadata rm, DynamicComponentDefinition definition) {
+        super(resourceResolver, rm, definition.getResourceType());
+        this.resourceSuperType = definition.getResourceSuperType();
+        this.properties = definition.getProperties();
+    }
+
+    private final String resourceSuperType;
+    /** Typed Properties shared with all Dynamic Components of the same Definition **/
+    private final DynamicComponentProperties properties;
+
+    private static DynamicComponentProperties createProperties(String resourceSuperType) {
+        // Do not add a Resource Super Type when it is null or empty
+        if(resourceSuperType != null && !resourceSuperType.isEmpty()) {
+            return new DynamicComponentProperties(
+                Collections.<String, Object>singletonMap(SLING_RESOURCE_SUPER_TYPE_PROPERTY, resourceSuperType)
+            );
+        }
+        return DynamicComponentProperties.EMPTY;
+    }
 
     @Override
     public String getResourceSuperType() {
         return resourceSuperType;
     }
 
-    public static class ResourceMetadataWrapper extends ResourceMetadata {
-
-        private boolean set = false;
-
-        @Override
-        public void setParameterMap(Map<String, String> parameterMap) {
-            // Allow the map to be set only once as Sling tries to reset the map
-            // with wrong values
-            //AS TODO: Investigate why
-            if(!set) {
-                super.setParameterMap(parameterMap);
-            }
-            set = true;
-        }
+    /** @return Typed, read-only Properties of this Component **/
+    public DynamicComponentProperties getProperties() {
+        return properties;
+    }
 
-        @Override
-        public Map<String, String> getParameterMap() {
-            Map<String, String> answer = super.getParameterMap();
-//            log.trace("Get Parameter Map: '{}'", answer);
-            return answer;
-        }
+    public static class ResourceMetadataWrapper extends ResourceMetadata {
 
         @Override
         public void lock() {
@@ -106,18 +103,15 @@ public class DynamicComponent
 
     @Override
     public ValueMap getValueMap() {
-        final Map<String, String> map = getResourceMetadata().getParameterMap();
-        if(map.isEmpty()) {
-            log.warn("Synthetic Resource: '{}' does not return a parameter map", getResourceMetadata().getResolutionPath());
-        }
-        Map<String,Object> parameters = new HashMap<String,Object>() {{
-            putAll(map);
-        }};
-        // Do not add a Resource Super Type when it is null or empty
-        if(resourceSuperType != null && !resourceSuperType.isEmpty()) {
-            parameters.put(SLING_RESOURCE_SUPER_TYPE_PROPERTY, resourceSuperType);
+        return properties;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+        if(type == ValueMap.class || type == Map.class) {
+            return (AdapterType) properties;
         }
-        log.info("Value Map for DC: '{}': '{}'", getName(), parameters);
-        return new ValueMapDecorator(parameters);
+        return super.adaptTo(type);
     }
 }
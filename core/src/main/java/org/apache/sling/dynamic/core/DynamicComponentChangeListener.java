@@ -0,0 +1,160 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.dynamic.common.DynamicComponentFilterNotifier;
+import org.apache.sling.dynamic.common.DynamicComponentServiceResolver;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.sling.api.resource.Resource.RESOURCE_TYPE_NON_EXISTING;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Listens to changes inside a Dynamic Provider Folder and applies them
+ * to the Index of the Resource Provider and the Filter Notifier.
+ * Only the Components that were affected by a change are read again.
+ * Changes of the children of the Target Root refresh the snapshot of the
+ * static children of the Resource Provider.
+ */
+public class DynamicComponentChangeListener
+    implements ResourceChangeListener
+{
+    private final Logger log = LoggerFactory.getLogger(DynamicComponentChangeListener.class);
+
+    private final DynamicComponentServiceResolver serviceResolver;
+    private final DynamicComponentFilterNotifier dynamicComponentFilterNotifier;
+    private final DynamicComponentResourceProvider provider;
+
+    @SuppressWarnings("rawtypes")
+    private volatile ServiceRegistration serviceRegistration;
+
+    public DynamicComponentChangeListener(
+        DynamicComponentServiceResolver serviceResolver, DynamicComponentFilterNotifier dynamicComponentFilterNotifier,
+        DynamicComponentResourceProvider provider
+    ) {
+        this.serviceResolver = serviceResolver;
+        this.dynamicComponentFilterNotifier = dynamicComponentFilterNotifier;
+        this.provider = provider;
+    }
+
+    //---------- Service Registration
+
+    public void registerService(BundleContext bundleContext) {
+        final Dictionary<String, Object> props = new Hashtable<>();
+        props.put(SERVICE_DESCRIPTION, "Updates the Dynamic Components of '" + provider.getTargetRootPath() + "' on changes");
+        props.put(SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put(ResourceChangeListener.PATHS, new String[] { provider.getProviderRootPath(), provider.getTargetRootPath() });
+        props.put(ResourceChangeListener.CHANGES, new String[] {
+            ResourceChange.ChangeType.ADDED.name(), ResourceChange.ChangeType.CHANGED.name(), ResourceChange.ChangeType.REMOVED.name()
+        });
+        serviceRegistration = bundleContext.registerService(ResourceChangeListener.class.getName(), this, props);
+        log.info("Registered Change Listener for Provider Root Path: '{}'", provider.getProviderRootPath());
+    }
+
+    public void unregisterService() {
+        if (serviceRegistration != null) {
+            try {
+                serviceRegistration.unregister();
+            } catch ( final IllegalStateException ise ) {
+                // this might happen on shutdown, so ignore
+            }
+            serviceRegistration = null;
+        }
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        String providerRootPath = provider.getProviderRootPath();
+        String targetRootPath = provider.getTargetRootPath();
+        boolean providerRootChanged = false;
+        boolean targetRootChanged = false;
+        // Collapse all changes to the affected components as children or properties of a component
+        // are part of the component definition
+        Set<String> componentNames = new LinkedHashSet<>();
+        for(ResourceChange change: changes) {
+            String path = change.getPath();
+            if(path.equals(providerRootPath)) {
+                providerRootChanged = true;
+            } else if(path.startsWith(providerRootPath + "/")) {
+                String relativePath = path.substring(providerRootPath.length() + 1);
+                int index = relativePath.indexOf('/');
+                componentNames.add(index < 0 ? relativePath : relativePath.substring(0, index));
+            } else if(path.equals(targetRootPath) || path.startsWith(targetRootPath + "/")) {
+                // A static resource changed which could hide or reveal a Dynamic Component
+                targetRootChanged |= provider.invalidate(path);
+            }
+        }
+        if(!providerRootChanged && !targetRootChanged && componentNames.isEmpty()) {
+            return;
+        }
+        final boolean refreshAll = providerRootChanged;
+        final boolean refreshStaticChildren = targetRootChanged;
+        final Set<String> changedComponentNames = componentNames;
+        try {
+            serviceResolver.execute(new DynamicComponentServiceResolver.Work<Void>() {
+                @Override
+                public Void execute(ResourceResolver resourceResolver) {
+                    apply(resourceResolver, refreshAll, changedComponentNames);
+                    if(refreshStaticChildren) {
+                        provider.refreshStaticChildren(resourceResolver.getResource(provider.getTargetRootPath()));
+                    }
+                    return null;
+                }
+            });
+        } catch (LoginException e) {
+            log.error("Was not able to obtain Service Resource Resolver", e);
+        }
+    }
+
+    private void apply(ResourceResolver resourceResolver, boolean providerRootChanged, Set<String> componentNames) {
+        String providerRootPath = provider.getProviderRootPath();
+        if(providerRootChanged) {
+            // The Provider Folder itself was added, changed or removed -> check all components
+            log.debug("Provider Root changed, refresh all: '{}'", providerRootPath);
+            componentNames.addAll(provider.getComponentNames());
+            Resource providerRoot = resourceResolver.getResource(providerRootPath);
+            if(providerRoot != null) {
+                Iterator<Resource> i = providerRoot.listChildren();
+                while(i.hasNext()) {
+                    componentNames.add(i.next().getName());
+                }
+            }
+            provider.refreshIndex(providerRoot);
+        }
+        // The Filter is notified once for all changes of this event batch
+        Map<String, Resource> added = new LinkedHashMap<>();
+        List<String> removed = new ArrayList<>();
+        for(String componentName: componentNames) {
+            String dynamicComponentPath = provider.getTargetRootPath() + '/' + componentName;
+            Resource component = resourceResolver.getResource(providerRootPath + '/' + componentName);
+            if(component != null && !component.isResourceType(RESOURCE_TYPE_NON_EXISTING)) {
+                log.debug("Dynamic Component added or changed: '{}'", dynamicComponentPath);
+                provider.updateComponent(component);
+                added.put(dynamicComponentPath, component);
+            } else {
+                log.debug("Dynamic Component removed: '{}'", dynamicComponentPath);
+                provider.removeComponent(componentName);
+                removed.add(dynamicComponentPath);
+            }
+        }
+        dynamicComponentFilterNotifier.removeDynamicComponents(removed);
+        dynamicComponentFilterNotifier.addDynamicComponents(added);
+    }
+}
@@ -0,0 +1,101 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static org.apache.sling.dynamic.common.Constants.SLING_RESOURCE_SUPER_TYPE_PROPERTY;
+
+/**
+ * Detached, immutable copy of a Component in the Dynamic Provider Folder.
+ * It holds everything that is needed to create a Dynamic Component without
+ * going back to the repository.
+ */
+public class DynamicComponentDefinition {
+
+    private static List<String> IGNORED_ATTRIBUTES = new ArrayList<>(Arrays.asList("jcr:created", SLING_RESOURCE_SUPER_TYPE_PROPERTY));
+
+    private final String name;
+    private final String sourcePath;
+    private final String resourceType;
+    private final String resourceSuperType;
+    private final DynamicComponentProperties properties;
+
+    /**
+     * Reads the given Resource and copies its properties
+     *
+     * @param source Resource that provides the data
+     * @return Definition of the given resource
+     */
+    public static DynamicComponentDefinition create(Resource source) {
+        ValueMap properties = source.getValueMap();
+        Map<String,Object> values = new HashMap<>();
+        for(Entry<String, Object> entry: properties.entrySet()) {
+            if(!IGNORED_ATTRIBUTES.contains(entry.getKey())) {
+                values.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new DynamicComponentDefinition(
+            source.getName(),
+            source.getPath(),
+            source.getResourceType(),
+            source.getResourceSuperType(),
+            values
+        );
+    }
+
+    public DynamicComponentDefinition(String name, String sourcePath, String resourceType, String resourceSuperType, Map<String, Object> properties) {
+        this.name = name;
+        this.sourcePath = sourcePath;
+        this.resourceType = resourceType;
+        this.resourceSuperType = resourceSuperType;
+        Map<String, Object> values = new HashMap<>(properties);
+        // Do not add a Resource Super Type when it is null or empty
+        if(resourceSuperType != null && !resourceSuperType.isEmpty()) {
+            values.put(SLING_RESOURCE_SUPER_TYPE_PROPERTY, resourceSuperType);
+        }
+        this.properties = new DynamicComponentProperties(values);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public String getResourceSuperType() {
+        return resourceSuperType;
+    }
+
+    /**
+     * The Properties are created once per definition and shared by all its Dynamic Components.
+     * They keep the values with their original type and cannot be modified.
+     *
+     * @return Typed Properties of the Component including its Resource Super Type
+     */
+    public DynamicComponentProperties getProperties() {
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return "DynamicComponentDefinition{" +
+            "name='" + name + '\'' +
+            ", source-path='" + sourcePath + '\'' +
+            ", resource-type='" + resourceType + '\'' +
+            ", resource-super-type='" + resourceSuperType + '\'' +
+            '}';
+    }
+}
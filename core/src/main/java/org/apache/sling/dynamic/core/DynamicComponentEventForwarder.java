@@ -0,0 +1,162 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.jackrabbit.api.observation.JackrabbitEvent;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.dynamic.common.DynamicComponentServiceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forwards the JCR Events of a Target Root to the Resource Change Listeners. The JCR
+ * Resource Provider excludes the Target Root from its observation as the Dynamic Component
+ * Resource Provider is mounted there and so without it neither the Resource Change
+ * Listener of the Tenant nor the one of the Filter would see a change of a static resource.
+ *
+ * The Events are received with a dedicated Service Session that is kept open until the
+ * forwarder is unregistered. Property Events are reported as a change of their Node.
+ */
+public class DynamicComponentEventForwarder
+    implements EventListener
+{
+    private static final int EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED
+        | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+
+    private final Logger log = LoggerFactory.getLogger(DynamicComponentEventForwarder.class);
+
+    private final DynamicComponentResourceProviderHandler provider;
+    private final String targetRootPath;
+    /** Reports the addition and removal of the Target Root itself as these Events belong to its Parent **/
+    private final EventListener targetRootListener = new EventListener() {
+        @Override
+        public void onEvent(EventIterator events) {
+            DynamicComponentEventForwarder.this.onEvent(events);
+        }
+    };
+    private ResourceResolver resourceResolver;
+
+    /** @param provider Resource Provider of the Target Root the Events are reported through **/
+    public DynamicComponentEventForwarder(DynamicComponentResourceProviderHandler provider) {
+        this.provider = provider;
+        this.targetRootPath = provider.getTenant().getTargetRootPath();
+    }
+
+    //---------- Registration
+
+    /**
+     * Opens the Service Session and starts listening to the Target Root
+     *
+     * @param resourceResolverFactory Factory the Service Resource Resolver is obtained from
+     */
+    public synchronized void register(ResourceResolverFactory resourceResolverFactory) {
+        Map<String, Object> authenticationInfo = Collections.<String, Object>singletonMap(
+            ResourceResolverFactory.SUBSERVICE, DynamicComponentServiceResolver.INDEX_SUBSERVICE
+        );
+        try {
+            resourceResolver = resourceResolverFactory.getServiceResourceResolver(authenticationInfo);
+            Session session = resourceResolver.adaptTo(Session.class);
+            if(session == null) {
+                log.warn("Target Root: '{}' is not backed by JCR, changes are not forwarded", targetRootPath);
+                return;
+            }
+            ObservationManager observationManager = session.getWorkspace().getObservationManager();
+            observationManager.addEventListener(this, EVENT_TYPES, targetRootPath, true, null, null, false);
+            String parentPath = getParentPath(targetRootPath);
+            if(parentPath != null) {
+                observationManager.addEventListener(
+                    targetRootListener, Event.NODE_ADDED | Event.NODE_REMOVED, parentPath, false, null, null, false
+                );
+            }
+            log.info("Registered Event Forwarder for Target Root Path: '{}'", targetRootPath);
+        } catch (LoginException e) {
+            log.error("Was not able to obtain Service Resource Resolver", e);
+        } catch (RepositoryException e) {
+            log.error("Was not able to listen to Target Root Path: '{}'", targetRootPath, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if(resourceResolver != null) {
+            Session session = resourceResolver.adaptTo(Session.class);
+            if(session != null && session.isLive()) {
+                try {
+                    ObservationManager observationManager = session.getWorkspace().getObservationManager();
+                    observationManager.removeEventListener(this);
+                    observationManager.removeEventListener(targetRootListener);
+                } catch (RepositoryException e) {
+                    log.warn("Was not able to stop listening to Target Root Path: '{}'", targetRootPath, e);
+                }
+            }
+            if(resourceResolver.isLive()) {
+                resourceResolver.close();
+            }
+            resourceResolver = null;
+        }
+    }
+
+    //---------- Event Listener
+
+    @Override
+    public void onEvent(EventIterator events) {
+        List<ResourceChange> changes = new ArrayList<>();
+        // A Node is reported as changed only once however many of its properties changed
+        Set<String> changedPaths = new HashSet<>();
+        while(events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                ChangeType type;
+                switch(event.getType()) {
+                    case Event.NODE_ADDED:
+                        type = ChangeType.ADDED;
+                        break;
+                    case Event.NODE_REMOVED:
+                        type = ChangeType.REMOVED;
+                        break;
+                    case Event.PROPERTY_ADDED:
+                    case Event.PROPERTY_CHANGED:
+                    case Event.PROPERTY_REMOVED:
+                        type = ChangeType.CHANGED;
+                        path = getParentPath(path);
+                        break;
+                    default:
+                        continue;
+                }
+                if(path == null || !(path.equals(targetRootPath) || path.startsWith(targetRootPath + "/"))) {
+                    continue;
+                }
+                if(type != ChangeType.CHANGED || changedPaths.add(path)) {
+                    boolean external = event instanceof JackrabbitEvent && ((JackrabbitEvent) event).isExternal();
+                    changes.add(new ResourceChange(type, path, external));
+                }
+            } catch (RepositoryException e) {
+                log.warn("Was not able to read Event: '{}'", event, e);
+            }
+        }
+        if(!changes.isEmpty() && !provider.reportChanges(changes)) {
+            log.debug("Resource Provider of Target Root: '{}' is not started, changes dropped: '{}'", targetRootPath, changes);
+        }
+    }
+
+    /** @return Path of the Parent or null for the Root **/
+    private static String getParentPath(String path) {
+        int index = path.lastIndexOf('/');
+        return index < 0 || path.equals("/") ? null : index == 0 ? "/" : path.substring(0, index);
+    }
+}
@@ -0,0 +1,145 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshot of the names of the static children of the Target Root as seen by the
+ * Service User. It tells the Resource Provider if a direct child of the Target Root
+ * can only be dynamic so that it can skip the lookup in the Parent Resource Provider
+ * that is known to miss.
+ *
+ * The answer does not depend on the requesting user: a name that has no static node
+ * at all is dynamic for everyone. A name with a static node is always looked up in
+ * the Parent Resource Provider with the user's permissions. The Service User must be
+ * able to read all children of the Target Root.
+ *
+ * The snapshot is immutable and replaced as a whole so that lookups do not lock. It is
+ * dropped when the Target Root changes and taken again with the Service Resource Resolver.
+ * While there is no snapshot every lookup goes to the Parent Resource Provider.
+ * A Target Root with more static children than the maximum size is not cached at all
+ * which is logged once and reported through {@link #isOverflowed()}.
+ */
+public class DynamicComponentExistenceCache {
+
+    public static final int DEFAULT_SIZE = 1000;
+
+    public enum Existence { STATIC, DYNAMIC }
+
+    private static final Logger LOG = LoggerFactory.getLogger(DynamicComponentExistenceCache.class);
+
+    private final String targetRootPath;
+    private final int maximumSize;
+    /** True if the last snapshot was not taken as the Target Root has too many static children **/
+    private volatile boolean overflowed;
+    /** Names of the static children or null if unknown **/
+    private volatile Set<String> staticNames;
+    /** Increased on every invalidation so that a snapshot taken before it is not published **/
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param targetRootPath Path of the Target Root whose children are kept
+     * @param maximumSize Maximum number of static children. A Target Root with more
+     *                    children is not cached and 0 disables the cache
+     */
+    public DynamicComponentExistenceCache(String targetRootPath, int maximumSize) {
+        this.targetRootPath = targetRootPath;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param path Absolute path of the resource
+     * @return STATIC if the path is a direct child of the Target Root with a static node,
+     *         DYNAMIC if it is a direct child without one or null if unknown
+     */
+    public Existence get(String path) {
+        Set<String> names = staticNames;
+        int start = targetRootPath.length() + 1;
+        if(names == null || path.length() <= start || path.indexOf('/', start) >= 0) {
+            return null;
+        }
+        return names.contains(path.substring(start)) ? Existence.STATIC : Existence.DYNAMIC;
+    }
+
+    /**
+     * Takes a new snapshot of the static children
+     *
+     * @param targetRoot Target Root obtained with the Service Resource Resolver. If null it has no static children
+     */
+    public void refresh(Resource targetRoot) {
+        if(maximumSize <= 0) {
+            return;
+        }
+        long snapshotGeneration = generation.get();
+        Set<String> names = new HashSet<>();
+        if(targetRoot != null) {
+            Iterator<Resource> i = targetRoot.listChildren();
+            while(i.hasNext()) {
+                Resource child = i.next();
+                // The listing of the Target Root contains the Dynamic Components as well
+                if(!(child instanceof DynamicComponent)) {
+                    names.add(child.getName());
+                }
+                if(names.size() > maximumSize) {
+                    if(!overflowed) {
+                        overflowed = true;
+                        LOG.warn(
+                            "Target Root: '{}' has more than {} static children, its Existence Cache is disabled until it has less." +
+                                " Increase 'dynamic.component.existence.cache.size' to cache it", targetRootPath, maximumSize
+                        );
+                    }
+                    return;
+                }
+            }
+        }
+        synchronized (generation) {
+            if(generation.get() == snapshotGeneration) {
+                staticNames = Collections.unmodifiableSet(names);
+                overflowed = false;
+            }
+        }
+    }
+
+    /** @return True if there is no snapshot as the Target Root has more static children than the maximum size **/
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Drops the snapshot if the Target Root or one of its children changed
+     *
+     * @param path Absolute path of the changed resource
+     * @return True if the snapshot was dropped and has to be taken again
+     */
+    public boolean invalidate(String path) {
+        if(path.equals(targetRootPath) || (path.startsWith(targetRootPath + "/") && path.indexOf('/', targetRootPath.length() + 1) < 0)) {
+            clear();
+            return true;
+        }
+        return false;
+    }
+
+    public void clear() {
+        synchronized (generation) {
+            generation.incrementAndGet();
+            staticNames = null;
+        }
+    }
+
+    /** @return Number of static children in the snapshot or -1 if there is none **/
+    public int size() {
+        Set<String> names = staticNames;
+        return names == null ? -1 : names.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+}
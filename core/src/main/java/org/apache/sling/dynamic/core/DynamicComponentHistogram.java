@@ -0,0 +1,88 @@
+package org.apache.sling.dynamic.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free Histogram with power of two buckets. Bucket 0 counts the value 0
+ * and bucket n the values from 2^(n-1) to 2^n - 1. Larger values go into the
+ * last bucket. Percentiles are reported as the upper bound of their bucket
+ * and so they are at most twice the actual value.
+ */
+public class DynamicComponentHistogram {
+
+    /** Durations are recorded in nanoseconds so the last bucket starts at about 70 seconds **/
+    private static final int BUCKETS = 38;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong maximum = new AtomicLong();
+
+    /** @param value Value to be recorded. Negative values are recorded as 0 **/
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current;
+        while(value > (current = maximum.get())) {
+            if(maximum.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMaximum() {
+        return maximum.get();
+    }
+
+    public long getMean() {
+        long answer = count.get();
+        return answer == 0 ? 0 : total.get() / answer;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Upper bound of the bucket that contains the given percentile or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            recorded += snapshot[i];
+        }
+        if(recorded == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(recorded * percentile / 100);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if(seen >= threshold && snapshot[i] > 0) {
+                return i == 0 ? 0 : Math.min((1L << i) - 1, maximum.get());
+            }
+        }
+        return maximum.get();
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        maximum.set(0);
+    }
+}
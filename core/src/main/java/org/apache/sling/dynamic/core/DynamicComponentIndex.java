@@ -0,0 +1,106 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.Resource;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.apache.sling.api.resource.Resource.RESOURCE_TYPE_NON_EXISTING;
+
+/**
+ * Immutable Snapshot of a Dynamic Provider Folder and its children
+ * keyed by the name of the child. A new Index has to be created
+ * whenever the Provider Folder changes.
+ */
+public class DynamicComponentIndex {
+
+    public static final DynamicComponentIndex EMPTY = new DynamicComponentIndex(
+        null, Collections.<String, DynamicComponentDefinition>emptyMap()
+    );
+
+    private final DynamicComponentDefinition providerRoot;
+    private final Map<String, DynamicComponentDefinition> components;
+
+    /**
+     * Reads the Provider Folder and all of its children into a new Index
+     *
+     * @param dynamicProvider Dynamic Provider Folder. If null or not existing an empty Index is returned
+     * @return Index of the Provider Folder
+     */
+    public static DynamicComponentIndex create(Resource dynamicProvider) {
+        if(dynamicProvider == null || dynamicProvider.isResourceType(RESOURCE_TYPE_NON_EXISTING)) {
+            return EMPTY;
+        }
+        Map<String, DynamicComponentDefinition> components = new LinkedHashMap<>();
+        Iterator<Resource> i = dynamicProvider.listChildren();
+        while(i.hasNext()) {
+            Resource child = i.next();
+            components.put(child.getName(), DynamicComponentDefinition.create(child));
+        }
+        return new DynamicComponentIndex(DynamicComponentDefinition.create(dynamicProvider), components);
+    }
+
+    private DynamicComponentIndex(DynamicComponentDefinition providerRoot, Map<String, DynamicComponentDefinition> components) {
+        this.providerRoot = providerRoot;
+        this.components = Collections.unmodifiableMap(components);
+    }
+
+    /**
+     * Creates a copy of this Index with the given Component added or replaced.
+     * This Index is not changed.
+     *
+     * @param component Definition of the Component to be added or replaced
+     * @return New Index containing the given Component
+     */
+    public DynamicComponentIndex withComponent(DynamicComponentDefinition component) {
+        Map<String, DynamicComponentDefinition> copy = new LinkedHashMap<>(components);
+        copy.put(component.getName(), component);
+        return new DynamicComponentIndex(providerRoot, copy);
+    }
+
+    /**
+     * Creates a copy of this Index without the given Component.
+     * This Index is not changed.
+     *
+     * @param name Name of the Component to be removed
+     * @return New Index without the given Component or this Index if it was not part of it
+     */
+    public DynamicComponentIndex withoutComponent(String name) {
+        if(!components.containsKey(name)) {
+            return this;
+        }
+        Map<String, DynamicComponentDefinition> copy = new LinkedHashMap<>(components);
+        copy.remove(name);
+        return new DynamicComponentIndex(providerRoot, copy);
+    }
+
+    /** @return Definition of the Provider Folder itself or null if the Index is empty **/
+    public DynamicComponentDefinition getProviderRoot() {
+        return providerRoot;
+    }
+
+    /**
+     * @param name Name of the Dynamic Component (child of the Provider Folder)
+     * @return Definition of the Component or null if not found
+     */
+    public DynamicComponentDefinition getComponent(String name) {
+        return components.get(name);
+    }
+
+    /** @return Names of all Components in the order of the Provider Folder **/
+    public Collection<String> getComponentNames() {
+        return components.keySet();
+    }
+
+    /** @return All Component Definitions in the order of the Provider Folder **/
+    public Collection<DynamicComponentDefinition> getComponents() {
+        return components.values();
+    }
+
+    public int size() {
+        return components.size();
+    }
+}
@@ -0,0 +1,84 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.apache.sling.dynamic.core.DynamicComponent.createSyntheticFromDefinition;
+
+/**
+ * Iterator over the children of the Target Root that first returns the children
+ * of the Parent Resource Provider and then the Dynamic Components of the Index.
+ * The Dynamic Components are only created when they are returned and the ones
+ * with the same name as a static child are skipped.
+ */
+public class DynamicComponentIterator
+    implements Iterator<Resource>
+{
+    private final Iterator<Resource> staticChildren;
+    private final Iterator<DynamicComponentDefinition> dynamicChildren;
+    private final DynamicComponentIndex index;
+    private final ResourceResolver resourceResolver;
+    private final String targetRootPath;
+    /** Only the static names that are also dynamic are kept as only these can be duplicates **/
+    private final Set<String> hiddenNames = new HashSet<>();
+
+    private DynamicComponentDefinition nextDynamic;
+
+    /**
+     * @param staticChildren Children of the Parent Resource Provider. Can be null
+     * @param index Index of the Dynamic Components
+     * @param resourceResolver Resource Resolver the Dynamic Components are created with
+     * @param targetRootPath Path of the Target Root the Dynamic Components are placed into
+     */
+    public DynamicComponentIterator(
+        Iterator<Resource> staticChildren, DynamicComponentIndex index, ResourceResolver resourceResolver, String targetRootPath
+    ) {
+        this.staticChildren = staticChildren;
+        this.dynamicChildren = index.getComponents().iterator();
+        this.index = index;
+        this.resourceResolver = resourceResolver;
+        this.targetRootPath = targetRootPath;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(staticChildren != null && staticChildren.hasNext()) {
+            return true;
+        }
+        while(nextDynamic == null && dynamicChildren.hasNext()) {
+            DynamicComponentDefinition candidate = dynamicChildren.next();
+            if(!hiddenNames.contains(candidate.getName())) {
+                nextDynamic = candidate;
+            }
+        }
+        return nextDynamic != null;
+    }
+
+    @Override
+    public Resource next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if(nextDynamic == null) {
+            Resource answer = staticChildren.next();
+            String name = answer.getName();
+            if(index.getComponent(name) != null) {
+                hiddenNames.add(name);
+            }
+            return answer;
+        }
+        DynamicComponentDefinition definition = nextDynamic;
+        nextDynamic = null;
+        return createSyntheticFromDefinition(resourceResolver, definition, targetRootPath + "/" + definition.getName());
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Children cannot be removed");
+    }
+}
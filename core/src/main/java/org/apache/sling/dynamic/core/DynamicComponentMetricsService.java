@@ -0,0 +1,291 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.dynamic.common.DynamicComponentMetrics;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the Metrics of the Dynamic Components in memory and exposes them as
+ * OSGi Service and as JMX MBean (registered by the JMX Whiteboard through the
+ * 'jmx.objectname' property).
+ *
+ * Durations are kept in nanoseconds as the lookups of the Index take less than a
+ * microsecond. Each histogram provides the count, the mean, the 99th percentile and
+ * the maximum. A single Metric is only computed when it is read and the metrics can
+ * be reset through the 'reset' operation of the MBean.
+ */
+@Component(
+    service = {DynamicComponentMetrics.class, DynamicMBean.class},
+    immediate = true,
+    property = {
+        Constants.SERVICE_DESCRIPTION + "=" + "Metrics of the Dynamic Components",
+        "jmx.objectname" + "=" + DynamicComponentMetricsService.OBJECT_NAME
+    }
+)
+public class DynamicComponentMetricsService
+    implements DynamicComponentMetrics, DynamicMBean
+{
+    public static final String OBJECT_NAME = "org.apache.sling.dynamic:type=DynamicComponentMetrics";
+
+    private static final String RESET_OPERATION = "reset";
+
+    private final Map<Lookup, DynamicComponentHistogram> lookups = new EnumMap<>(Lookup.class);
+    private final AtomicLong existenceCacheHits = new AtomicLong();
+    private final AtomicLong existenceCacheMisses = new AtomicLong();
+    private final AtomicLong existenceCacheOverflows = new AtomicLong();
+    private final DynamicComponentHistogram listChildren = new DynamicComponentHistogram();
+    private final DynamicComponentHistogram listChildrenSize = new DynamicComponentHistogram();
+    private final DynamicComponentHistogram splice = new DynamicComponentHistogram();
+    private final DynamicComponentHistogram spliceAddedBytes = new DynamicComponentHistogram();
+    private final DynamicComponentHistogram spliceRemovedBytes = new DynamicComponentHistogram();
+    private final AtomicLong responseCacheHits = new AtomicLong();
+    private final AtomicLong responseCacheMisses = new AtomicLong();
+    private final DynamicComponentHistogram setup = new DynamicComponentHistogram();
+    private final DynamicComponentHistogram update = new DynamicComponentHistogram();
+    /** Metrics by their name in the order they are listed **/
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private final MBeanInfo mBeanInfo;
+
+    public DynamicComponentMetricsService() {
+        for(Lookup lookup: Lookup.values()) {
+            DynamicComponentHistogram histogram = new DynamicComponentHistogram();
+            lookups.put(lookup, histogram);
+            addDuration("GetResource." + toName(lookup), histogram);
+        }
+        addCounter("ExistenceCache.Hits", existenceCacheHits);
+        addCounter("ExistenceCache.Misses", existenceCacheMisses);
+        addCounter("ExistenceCache.Overflows", existenceCacheOverflows);
+        addDuration("ListChildren", listChildren);
+        gauges.put("ListChildren.MeanDynamicChildren", new HistogramGauge(listChildrenSize, Statistic.MEAN));
+        gauges.put("ListChildren.MaxDynamicChildren", new HistogramGauge(listChildrenSize, Statistic.MAXIMUM));
+        addDuration("Splice", splice);
+        gauges.put("Splice.MeanAddedBytes", new HistogramGauge(spliceAddedBytes, Statistic.MEAN));
+        gauges.put("Splice.MaxAddedBytes", new HistogramGauge(spliceAddedBytes, Statistic.MAXIMUM));
+        gauges.put("Splice.MeanRemovedBytes", new HistogramGauge(spliceRemovedBytes, Statistic.MEAN));
+        gauges.put("Splice.MaxRemovedBytes", new HistogramGauge(spliceRemovedBytes, Statistic.MAXIMUM));
+        addCounter("ResponseCache.Hits", responseCacheHits);
+        addCounter("ResponseCache.Misses", responseCacheMisses);
+        gauges.put("ResponseCache.HitRatePercent", new Gauge() {
+            @Override
+            public long get() {
+                long hits = responseCacheHits.get();
+                long lookups = hits + responseCacheMisses.get();
+                return lookups == 0 ? 0 : hits * 100 / lookups;
+            }
+        });
+        addDuration("Setup", setup);
+        addDuration("Update", update);
+        mBeanInfo = createMBeanInfo(gauges.keySet());
+    }
+
+    //---------- Recording
+
+    @Override
+    public void recordLookup(Lookup lookup, long nanos) {
+        lookups.get(lookup).record(nanos);
+    }
+
+    @Override
+    public void recordExistenceCache(boolean existenceCacheHit) {
+        (existenceCacheHit ? existenceCacheHits : existenceCacheMisses).incrementAndGet();
+    }
+
+    @Override
+    public void recordExistenceCacheOverflow() {
+        existenceCacheOverflows.incrementAndGet();
+    }
+
+    @Override
+    public void recordListChildren(int dynamicChildren, long nanos) {
+        listChildren.record(nanos);
+        listChildrenSize.record(dynamicChildren);
+    }
+
+    @Override
+    public void recordSplice(long addedBytes, long nanos) {
+        splice.record(nanos);
+        // A compressed Components List can shrink so both directions are recorded for every splice
+        spliceAddedBytes.record(Math.max(addedBytes, 0));
+        spliceRemovedBytes.record(Math.max(-addedBytes, 0));
+    }
+
+    @Override
+    public void recordResponseCache(boolean responseCacheHit) {
+        (responseCacheHit ? responseCacheHits : responseCacheMisses).incrementAndGet();
+    }
+
+    @Override
+    public void recordSetup(long nanos) {
+        setup.record(nanos);
+    }
+
+    @Override
+    public void recordUpdate(long nanos) {
+        update.record(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> answer = new LinkedHashMap<>();
+        for(Entry<String, Gauge> entry: gauges.entrySet()) {
+            answer.put(entry.getKey(), entry.getValue().get());
+        }
+        return answer;
+    }
+
+    public void reset() {
+        for(DynamicComponentHistogram histogram: lookups.values()) {
+            histogram.reset();
+        }
+        existenceCacheHits.set(0);
+        existenceCacheMisses.set(0);
+        existenceCacheOverflows.set(0);
+        listChildren.reset();
+        listChildrenSize.reset();
+        splice.reset();
+        spliceAddedBytes.reset();
+        spliceRemovedBytes.reset();
+        responseCacheHits.set(0);
+        responseCacheMisses.set(0);
+        setup.reset();
+        update.reset();
+    }
+
+    private void addCounter(String name, final AtomicLong counter) {
+        gauges.put(name, new Gauge() {
+            @Override
+            public long get() {
+                return counter.get();
+            }
+        });
+    }
+
+    private void addDuration(String prefix, DynamicComponentHistogram histogram) {
+        gauges.put(prefix + ".Count", new HistogramGauge(histogram, Statistic.COUNT));
+        gauges.put(prefix + ".MeanNanos", new HistogramGauge(histogram, Statistic.MEAN));
+        gauges.put(prefix + ".P99Nanos", new HistogramGauge(histogram, Statistic.P99));
+        gauges.put(prefix + ".MaxNanos", new HistogramGauge(histogram, Statistic.MAXIMUM));
+    }
+
+    /** @return Camel Case name of the Lookup like 'DynamicHit' **/
+    private static String toName(Lookup lookup) {
+        StringBuilder answer = new StringBuilder();
+        for(String part: lookup.name().split("_")) {
+            answer.append(part.charAt(0)).append(part.substring(1).toLowerCase());
+        }
+        return answer.toString();
+    }
+
+    //---------- JMX
+
+    private static MBeanInfo createMBeanInfo(Iterable<String> names) {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for(String name: names) {
+            attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+        }
+        return new MBeanInfo(
+            DynamicComponentMetricsService.class.getName(),
+            "Metrics of the Dynamic Components",
+            attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+            null,
+            new MBeanOperationInfo[] {
+                new MBeanOperationInfo(
+                    RESET_OPERATION, "Resets all Metrics", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION
+                )
+            },
+            null
+        );
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Gauge gauge = gauges.get(attribute);
+        if(gauge == null) {
+            throw new AttributeNotFoundException("No Metric with name: " + attribute);
+        }
+        return gauge.get();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList answer = new AttributeList();
+        for(String attribute: attributes) {
+            Gauge gauge = gauges.get(attribute);
+            if(gauge != null) {
+                answer.add(new Attribute(attribute, gauge.get()));
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        // Metrics are read-only
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if(RESET_OPERATION.equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown Operation: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return mBeanInfo;
+    }
+
+    //---------- Gauges
+
+    /** Current value of a single Metric **/
+    private interface Gauge {
+        long get();
+    }
+
+    private enum Statistic { COUNT, MEAN, P99, MAXIMUM }
+
+    private static class HistogramGauge implements Gauge {
+        private final DynamicComponentHistogram histogram;
+        private final Statistic statistic;
+
+        HistogramGauge(DynamicComponentHistogram histogram, Statistic statistic) {
+            this.histogram = histogram;
+            this.statistic = statistic;
+        }
+
+        @Override
+        public long get() {
+            switch(statistic) {
+                case COUNT: return histogram.getCount();
+                case MEAN: return histogram.getMean();
+                case P99: return histogram.getPercentile(99);
+                default: return histogram.getMaximum();
+            }
+        }
+    }
+}
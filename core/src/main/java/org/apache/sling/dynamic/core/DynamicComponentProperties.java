@@ -0,0 +1,144 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+
+import java.lang.reflect.Array;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, typed Property Store of a Dynamic Component. The values keep
+ * the type they had in the repository (arrays for multi-value properties,
+ * Calendar, Long, Boolean etc.) so that no conversion is needed when they
+ * are requested with their native type.
+ *
+ * Scalar values (String, Long, Boolean etc.) are immutable and shared, so reading
+ * them allocates nothing. Mutable values (arrays, Calendars and Dates) are copied in
+ * every view, the getters as well as the entries, so that the store cannot be changed
+ * through a returned value.
+ */
+public class DynamicComponentProperties
+    extends AbstractMap<String, Object>
+    implements ValueMap
+{
+    public static final DynamicComponentProperties EMPTY = new DynamicComponentProperties(Collections.<String, Object>emptyMap());
+
+    private final Map<String, Object> values;
+    /** Only used for values that have to be converted into a different type **/
+    private final ValueMap converter;
+    private final Set<Entry<String, Object>> entries = new EntrySet();
+
+    public DynamicComponentProperties(Map<String, Object> values) {
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+        this.converter = new ValueMapDecorator(this.values);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return copyIfMutable(values.get(key));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name, Class<T> type) {
+        Object value = values.get(name);
+        if(value == null) {
+            return null;
+        }
+        if(type.isInstance(value)) {
+            return (T) copyIfMutable(value);
+        }
+        return converter.get(name, type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name, T defaultValue) {
+        if(defaultValue == null) {
+            return (T) get(name);
+        }
+        T answer = get(name, (Class<T>) defaultValue.getClass());
+        return answer == null ? defaultValue : answer;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return entries;
+    }
+
+    private static boolean isMutable(Object value) {
+        return value != null && (value.getClass().isArray() || value instanceof Calendar || value instanceof Date);
+    }
+
+    private static Object copyIfMutable(Object value) {
+        if(!isMutable(value)) {
+            return value;
+        }
+        if(value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            Object answer = Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, answer, 0, length);
+            return answer;
+        }
+        if(value instanceof Calendar) {
+            return ((Calendar) value).clone();
+        }
+        return ((Date) value).clone();
+    }
+
+    /** Read-only Entries that hand out a copy of a mutable value like the getters do **/
+    private class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            final Iterator<Entry<String, Object>> i = values.entrySet().iterator();
+            return new Iterator<Entry<String, Object>>() {
+                @Override
+                public boolean hasNext() {
+                    return i.hasNext();
+                }
+
+                @Override
+                public Entry<String, Object> next() {
+                    Entry<String, Object> entry = i.next();
+                    if(isMutable(entry.getValue())) {
+                        return new SimpleImmutableEntry<>(entry.getKey(), copyIfMutable(entry.getValue()));
+                    }
+                    return entry;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("Properties are read-only");
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DynamicComponentProperties" + values;
+    }
+}
@@ -1,11 +1,35 @@
 package org.apache.sling.dynamic.core;
 
 public interface DynamicComponentResourceManager {
+    /**
+     * Mounts the Resource Provider of the Tenant for the given Target and Dynamic Provider
+     * Folder right away without reading the repository. It starts without any Dynamic
+     * Components and picks them up through the Resource Change Listener or
+     * {@link #update(String, String)} once the folder is set up. Calling it again for
+     * the same folders does nothing.
+     *
+     * @param dynamicTargetPath Path to the Folder where the dynamic components will be added to.
+     *                          The Resource Provider is mounted on it
+     * @param dynamicProviderPath Path to the Folder where the dynamic components will be located in
+     */
+    void register(String dynamicTargetPath, String dynamicProviderPath);
+
     /**
      * Whenever a Dynamic Provider Folder is ready to be handled
-     * this method is called to create the Dynamic Components
+     * this method is called to create the Dynamic Components.
+     * Later changes inside the folder are picked up by a Resource Change
+     * Listener so calling this method again is only needed to resync.
      *
+     * @param dynamicTargetPath Path to the Folder where the dynamic components are added to
      * @param dynamicProviderPath Path to the Folder where the dynamic components are located in
      */
-    void update(String dynamicProviderPath);
+    void update(String dynamicTargetPath, String dynamicProviderPath);
+
+    /**
+     * Removes the Tenant of the given Target Folder. The Dynamic Components are
+     * no longer provided.
+     *
+     * @param dynamicTargetPath Path to the Folder where the dynamic components are added to
+     */
+    void unregister(String dynamicTargetPath);
 }
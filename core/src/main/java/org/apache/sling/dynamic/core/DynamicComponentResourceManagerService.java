@@ -5,12 +5,16 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.dynamic.common.DynamicComponentDiagnostics;
 import org.apache.sling.dynamic.common.DynamicComponentFilterNotifier;
+import org.apache.sling.dynamic.common.DynamicComponentMetrics;
+import org.apache.sling.dynamic.common.DynamicComponentServiceResolver;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
@@ -18,20 +22,25 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * This class will register all available Tenant Resource
- * Types on startup as well as when a new Tenant is created
+ * This class creates a Tenant for every Target / Provider Folder pair that is
+ * registered with it and mounts a Dynamic Component Resource Provider on its
+ * Target Folder. Routing a path to its Tenant is left to the Resource Resolver
+ * so that no other path is affected. Tenants can be added and removed at any time.
  */
 @Component(
     service=DynamicComponentResourceManager.class,
     immediate = true,
-    configurationPolicy = ConfigurationPolicy.REQUIRE
+    configurationPolicy = ConfigurationPolicy.OPTIONAL
 )
-@Designate(ocd = DynamicComponentResourceManagerService.Configuration.class, factory = true)
+@Designate(ocd = DynamicComponentResourceManagerService.Configuration.class)
 public class DynamicComponentResourceManagerService
     implements DynamicComponentResourceManager
 {
@@ -40,9 +49,17 @@ public class DynamicComponentResourceManagerService
         description = "Configuration of the Dynamic Component Resource Provider")
     public @interface Configuration {
         @AttributeDefinition(
-            name = "Dynamic Component Target Path",
-            description="Path to the Folder where the Dynamic Components will added to dynamically")
-        String dynamic_component_target_path();
+            name = "Existence Cache Size",
+            description="Maximum number of static children of a Target Path that are remembered so that the lookup of a Dynamic Component can skip the repository. A Target Path with more static children is not cached which is logged and counted in the 'ExistenceCache.Overflows' Metric. 0 disables the cache")
+        int dynamic_component_existence_cache_size() default DynamicComponentExistenceCache.DEFAULT_SIZE;
+        @AttributeDefinition(
+            name = "Diagnostic Mode",
+            description="Logging of single lookups: 'off' (default), 'sample' (every n-th lookup) or 'trace' (every lookup). Can be changed at runtime")
+        String dynamic_component_diagnostic_mode() default "off";
+        @AttributeDefinition(
+            name = "Diagnostic Sample Rate",
+            description="In the 'sample' Diagnostic Mode every n-th lookup is logged")
+        int dynamic_component_diagnostic_sample_rate() default DynamicComponentDiagnostics.DEFAULT_SAMPLE_RATE;
     }
 
     @Reference
@@ -51,67 +68,171 @@ public class DynamicComponentResourceManagerService
     @Reference
     private DynamicComponentFilterNotifier dynamicComponentFilterNotifier;
 
+    @Reference
+    private DynamicComponentMetrics metrics;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private Map<String, DynamicComponentResourceProvider> registeredServices = new HashMap<>();
+    /** Tenants, their Resource Providers, Event Forwarders and Listeners by Target Path **/
+    private final Map<String, DynamicComponentTenant> tenants = new ConcurrentHashMap<>();
+    private final Map<String, DynamicComponentResourceProviderHandler> providers = new ConcurrentHashMap<>();
+    private final Map<String, DynamicComponentEventForwarder> forwarders = new ConcurrentHashMap<>();
+    private final Map<String, DynamicComponentChangeListener> listeners = new ConcurrentHashMap<>();
     private BundleContext bundleContext;
-    private String dynamicTargetPath;
+    /** Shared with the Listeners. Only used to build the Index and never during a request **/
+    private DynamicComponentServiceResolver serviceResolver;
+    private volatile int existenceCacheSize;
+    /** Shared with the Resource Provider so that a configuration change applies right away **/
+    private final DynamicComponentDiagnostics diagnostics = new DynamicComponentDiagnostics();
 
     @Activate
-    private void activate(BundleContext bundleContext, Configuration configuration) {
+    private synchronized void activate(BundleContext bundleContext, Configuration configuration) {
         log.info("Activate Started, bundle context: '{}'", bundleContext);
         this.bundleContext = bundleContext;
-        dynamicTargetPath = configuration.dynamic_component_target_path();
-        log.info("Dynamic Target Path: '{}'", dynamicTargetPath);
+        serviceResolver = new DynamicComponentServiceResolver(resourceResolverFactory, DynamicComponentServiceResolver.INDEX_SUBSERVICE);
+        modified(configuration);
     }
 
-    public void update(String dynamicProviderPath) {
-        try (ResourceResolver resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null)) {
-            Resource dynamicProvider = resourceResolver.getResource(dynamicProviderPath);
-            Resource dynamicTarget = resourceResolver.getResource(dynamicTargetPath);
-            log.info("Dynamic Resource Provider: '{}', Target: '{}'", dynamicProvider, dynamicTarget);
-            // Look for all the Tenants in /content
-            if(dynamicProvider != null) {
-                DynamicComponentResourceProviderHandler service = new DynamicComponentResourceProviderHandler();
-                log.info("Dynamic Target: '{}', Dynamic Provider: '{}'", dynamicTarget, dynamicProvider);
-                long id = service.registerService(bundleContext.getBundle(), dynamicTargetPath, dynamicProviderPath);
-                log.info("After Registering Tenant RP: service: '{}', id: '{}'", service, id);
-                registeredServices.put(dynamicTarget.getPath(), service);
-            }
-            Iterator<Resource> i = dynamicProvider.listChildren();
-            while(i.hasNext()) {
-                Resource provided = i.next();
-                log.info("Provided Dynamic: '{}'", provided);
-                ValueMap childProperties = provided.getValueMap();
-                String primaryType = childProperties.get("jcr:primaryType", String.class);
-                String componentName = provided.getName();
-                log.info("Dynamic Child Source: '{}', Primary Type: '{}'", componentName, primaryType);
-                if(componentName != null && !componentName.isEmpty()) {
-                    dynamicComponentFilterNotifier.addDynamicComponent(
-                         dynamicTargetPath + '/' + componentName, provided
-                    );
-//                    eventAdmin.postEvent(
-//                        new Event(
-//                            new HashMap<String, Object>() {{
-//                                Event.NODE_ADDED
-//                            }}
-//                        )
-//                    );
-//                    create = true;
+    @Modified
+    private synchronized void modified(Configuration configuration) {
+        diagnostics.configure(configuration.dynamic_component_diagnostic_mode(), configuration.dynamic_component_diagnostic_sample_rate());
+        log.info("Diagnostic Mode: '{}', Sample Rate: '{}'", diagnostics.getMode(), diagnostics.getSampleRate());
+        // A changed cache size applies to the Tenants registered afterwards
+        existenceCacheSize = configuration.dynamic_component_existence_cache_size();
+    }
+
+    @Override
+    public synchronized void register(String dynamicTargetPath, String dynamicProviderPath) {
+        DynamicComponentTenant tenant = tenants.get(dynamicTargetPath);
+        if(tenant != null && dynamicProviderPath.equals(tenant.getProviderRootPath())) {
+            return;
+        }
+        if(tenant != null) {
+            unregister(dynamicTargetPath);
+        }
+        registerTenant(dynamicTargetPath, dynamicProviderPath, null);
+    }
+
+    @Override
+    public synchronized void update(final String dynamicTargetPath, final String dynamicProviderPath) {
+        long start = System.nanoTime();
+        try {
+            serviceResolver.execute(new DynamicComponentServiceResolver.Work<Void>() {
+                @Override
+                public Void execute(ResourceResolver resourceResolver) {
+                    update(resourceResolver, dynamicTargetPath, dynamicProviderPath);
+                    return null;
                 }
-            }
+            });
         } catch (LoginException e) {
             log.error("Was not able to obtain Service Resource Resolver", e);
+        } finally {
+            metrics.recordUpdate(System.nanoTime() - start);
+        }
+    }
+
+    private void update(ResourceResolver resourceResolver, String dynamicTargetPath, String dynamicProviderPath) {
+        Resource dynamicProvider = resourceResolver.getResource(dynamicProviderPath);
+        log.info("Dynamic Resource Provider: '{}', Target: '{}'", dynamicProvider, dynamicTargetPath);
+        if(dynamicProvider == null) {
+            log.warn("Dynamic Provider: '{}' not found, ignore update", dynamicProviderPath);
+            return;
         }
+        DynamicComponentTenant tenant = tenants.get(dynamicTargetPath);
+        if(tenant != null && dynamicProviderPath.equals(tenant.getProviderRootPath())) {
+            // Already registered -> only refresh the Index and drop the components that are gone
+            Collection<String> previousComponentNames = new ArrayList<>(tenant.getComponentNames());
+            tenant.refreshIndex(dynamicProvider);
+            previousComponentNames.removeAll(tenant.getComponentNames());
+            Collection<String> removed = new ArrayList<>();
+            for(String componentName: previousComponentNames) {
+                removed.add(dynamicTargetPath + '/' + componentName);
+            }
+            dynamicComponentFilterNotifier.removeDynamicComponents(removed);
+        } else {
+            if(tenant != null) {
+                unregister(dynamicTargetPath);
+            }
+            registerTenant(dynamicTargetPath, dynamicProviderPath, dynamicProvider);
+        }
+        // All components are handed to the Filter at once so that it changes its Registry only once
+        Map<String, Resource> added = new LinkedHashMap<>();
+        Iterator<Resource> i = dynamicProvider.listChildren();
+        while(i.hasNext()) {
+            Resource provided = i.next();
+            ValueMap childProperties = provided.getValueMap();
+            String primaryType = childProperties.get("jcr:primaryType", String.class);
+            String componentName = provided.getName();
+            log.info("Dynamic Child Source: '{}', Primary Type: '{}'", componentName, primaryType);
+            if(componentName != null && !componentName.isEmpty()) {
+                added.put(dynamicTargetPath + '/' + componentName, provided);
+            }
+        }
+        dynamicComponentFilterNotifier.addDynamicComponents(added);
+        tenants.get(dynamicTargetPath).refreshStaticChildren(resourceResolver.getResource(dynamicTargetPath));
+    }
+
+    @Override
+    public synchronized void unregister(String dynamicTargetPath) {
+        DynamicComponentChangeListener listener = listeners.remove(dynamicTargetPath);
+        if(listener != null) {
+            listener.unregisterService();
+        }
+        DynamicComponentEventForwarder forwarder = forwarders.remove(dynamicTargetPath);
+        if(forwarder != null) {
+            forwarder.unregister();
+        }
+        DynamicComponentResourceProviderHandler provider = providers.remove(dynamicTargetPath);
+        if(provider != null) {
+            log.info("Before UnRegistering RP, service: '{}'", provider);
+            provider.unregisterService();
+        }
+        DynamicComponentTenant tenant = tenants.remove(dynamicTargetPath);
+        if(tenant != null) {
+            log.info("Tenant unregistered: '{}'", tenant);
+        }
+    }
+
+    /**
+     * Creates the Tenant, mounts its Resource Provider on the Target Folder and registers
+     * its Event Forwarder and Resource Change Listener
+     *
+     * @param dynamicTargetPath Path of the Dynamic Target Folder
+     * @param dynamicProviderPath Path of the Dynamic Provider Folder
+     * @param dynamicProvider Dynamic Provider Folder to be indexed before the Tenant becomes visible.
+     *                        If null the Tenant starts with an empty Index
+     */
+    private void registerTenant(String dynamicTargetPath, String dynamicProviderPath, Resource dynamicProvider) {
+        long setupStart = System.nanoTime();
+        DynamicComponentTenant tenant = new DynamicComponentTenant(dynamicTargetPath, dynamicProviderPath, existenceCacheSize);
+        // Index the Components (if available) before the Tenant becomes visible
+        tenant.refreshIndex(dynamicProvider);
+        tenants.put(dynamicTargetPath, tenant);
+        DynamicComponentResourceProviderHandler provider = new DynamicComponentResourceProviderHandler(tenant, diagnostics, metrics);
+        long id = provider.registerService(bundleContext.getBundle());
+        log.info("After Registering RP: service: '{}', id: '{}'", provider, id);
+        providers.put(dynamicTargetPath, provider);
+        // The changes below the Target Folder are only seen through the Resource Provider
+        DynamicComponentEventForwarder forwarder = new DynamicComponentEventForwarder(provider);
+        forwarder.register(resourceResolverFactory);
+        forwarders.put(dynamicTargetPath, forwarder);
+        DynamicComponentChangeListener listener = new DynamicComponentChangeListener(
+            serviceResolver, dynamicComponentFilterNotifier, tenant
+        );
+        listener.registerService(bundleContext);
+        listeners.put(dynamicTargetPath, listener);
+        log.info("Tenant registered: '{}'", tenant);
+        metrics.recordSetup(System.nanoTime() - setupStart);
     }
 
     @Deactivate
-    private void deactivate() {
-        for(DynamicComponentResourceProvider service: registeredServices.values()) {
-            log.info("Before UnRegistering Tenant RP, service: '{}'", service);
-            service.unregisterService();
-            log.info("After UnRegistering Tenant RP, service: '{}'", service);
+    private synchronized void deactivate() {
+        for(String targetPath: new ArrayList<>(tenants.keySet())) {
+            unregister(targetPath);
+        }
+        if(serviceResolver != null) {
+            serviceResolver.close();
+            serviceResolver = null;
         }
     }
 }
-
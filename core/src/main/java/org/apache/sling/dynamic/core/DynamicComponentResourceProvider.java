@@ -1,16 +1,60 @@
 package org.apache.sling.dynamic.core;
 
-import org.osgi.framework.Bundle;
+import org.apache.sling.api.resource.Resource;
 
-import java.util.List;
+import java.util.Collection;
 
+/**
+ * Dynamic Components of one Target Root / Provider Root pair (Tenant) served
+ * by the Dynamic Component Resource Provider
+ */
 public interface DynamicComponentResourceProvider {
 
-    long registerService(Bundle bundle, String targetRootPath, String providerRootPath);
+    /**
+     * Rebuilds the in-memory Index of the Dynamic Components
+     * from the given Dynamic Provider Folder
+     *
+     * @param dynamicProvider Folder where the dynamic components are located in. If null the Index is emptied
+     */
+    void refreshIndex(Resource dynamicProvider);
 
-    void unregisterService();
+    /**
+     * Adds or replaces a single Component in the Index
+     *
+     * @param component Resource of the Component inside the Dynamic Provider Folder
+     */
+    void updateComponent(Resource component);
+
+    /**
+     * Removes a single Component from the Index
+     *
+     * @param name Name of the Component inside the Dynamic Provider Folder
+     */
+    void removeComponent(String name);
+
+    /**
+     * Takes a new snapshot of the static children of the Target Root
+     *
+     * @param dynamicTarget Target Root read with the Service Resource Resolver. If null it has no static children
+     */
+    void refreshStaticChildren(Resource dynamicTarget);
+
+    /**
+     * Drops everything that is known about the given path
+     * as the resource changed in the repository
+     *
+     * @param path Absolute path of the changed resource
+     * @return True if the static children have to be refreshed
+     */
+    boolean invalidate(String path);
+
+    /** @return Snapshot of the static children of the Target Root **/
+    DynamicComponentExistenceCache getExistenceCache();
+
+    /** @return Names of all Components currently in the Index **/
+    Collection<String> getComponentNames();
+
+    String getProviderRootPath();
 
-    boolean isActive();
     String getTargetRootPath();
-//    List<String> getProvidedComponentPaths();
 }
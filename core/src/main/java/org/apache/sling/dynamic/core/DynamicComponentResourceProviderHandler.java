@@ -2,6 +2,10 @@ package org.apache.sling.dynamic.core;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.dynamic.common.DynamicComponentDiagnostics;
+import org.apache.sling.dynamic.common.DynamicComponentMetrics;
+import org.apache.sling.dynamic.common.DynamicComponentMetrics.Lookup;
 import org.apache.sling.spi.resource.provider.ProviderContext;
 import org.apache.sling.spi.resource.provider.ResolveContext;
 import org.apache.sling.spi.resource.provider.ResourceContext;
@@ -12,14 +16,13 @@ import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 
-import static org.apache.sling.api.resource.Resource.RESOURCE_TYPE_NON_EXISTING;
-import static org.apache.sling.dynamic.core.DynamicComponent.createSyntheticFromResource;
+import static org.apache.sling.dynamic.core.DynamicComponent.createSyntheticFromDefinition;
+import static org.apache.sling.dynamic.core.DynamicComponentExistenceCache.Existence;
 import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
 import static org.osgi.framework.Constants.SERVICE_VENDOR;
 
@@ -27,41 +30,66 @@ import static org.osgi.framework.Constants.SERVICE_VENDOR;
  * This a Resource Provider that provides a Dynamic Component that is not available in
  * the given source folder. It will then create a Synthetic Resource that points a component
  * in the provider folder to the source folder.
+ * A Resource Provider is registered on the Target Root of each Target Root / Provider Root
+ * pair (Tenant) so that the Resource Resolver only hands it the paths of its Tenant and
+ * any other path does not pay for it. Everything that is not a Dynamic Component is handed
+ * to the Parent Resource Provider.
+ * The Components of the provider folder are kept in an in-memory Index of the Tenant so that
+ * lookups do not need to go to the repository.
+ *
+ * The JCR Resource Provider does not report the changes below another Resource Provider
+ * and so they are reported through {@link #reportChanges(List)} instead.
  */
 public class DynamicComponentResourceProviderHandler
     extends ResourceProvider
-    implements DynamicComponentResourceProvider
 {
     private final Logger log = LoggerFactory.getLogger(DynamicComponentResourceProviderHandler.class);
 
     @SuppressWarnings("rawtypes")
     private volatile ServiceRegistration serviceRegistration;
 
-    private String targetRootPath;
-    private String providerRootPath;
-//    private List<String> providedComponentPaths;
-    private boolean active;
+    private final DynamicComponentTenant tenant;
+    private final DynamicComponentDiagnostics diagnostics;
+    private final DynamicComponentMetrics metrics;
+
+    /** @param tenant Tenant that is served **/
+    public DynamicComponentResourceProviderHandler(DynamicComponentTenant tenant) {
+        this(tenant, new DynamicComponentDiagnostics(), new DynamicComponentMetricsService());
+    }
+
+    /**
+     * @param tenant Tenant that is served
+     * @param diagnostics Decides which lookups are logged. By default none are
+     * @param metrics Records the lookups and listings
+     */
+    public DynamicComponentResourceProviderHandler(
+        DynamicComponentTenant tenant, DynamicComponentDiagnostics diagnostics, DynamicComponentMetrics metrics
+    ) {
+        this.tenant = tenant;
+        this.diagnostics = diagnostics;
+        this.metrics = metrics;
+    }
 
     //---------- Service Registration
 
-    public long registerService(Bundle bundle, String targetRootPath, String providerRootPath) {
-        this.targetRootPath = targetRootPath;
-        this.providerRootPath = providerRootPath;
-        log.info("Target Root Path: '{}', Provider Root Paths: '{}'", targetRootPath, providerRootPath);
+    /**
+     * @param bundle Bundle the Resource Provider is registered with on the Target Root of its Tenant
+     * @return Service Id of the Resource Provider
+     */
+    public long registerService(Bundle bundle) {
+        String rootPath = tenant.getTargetRootPath();
 
         final Dictionary<String, Object> props = new Hashtable<>();
-        props.put("label", "Dynamic Component Resource: '" + targetRootPath + "'");
-        props.put(SERVICE_DESCRIPTION, "Provides the Dynamic Component for '" + targetRootPath + "' resources as synthetic resources");
+        props.put("label", "Dynamic Component Resource: '" + rootPath + "'");
+        props.put(SERVICE_DESCRIPTION, "Provides the Dynamic Component for resources below '" + rootPath + "' as synthetic resources");
         props.put(SERVICE_VENDOR, "The Apache Software Foundation");
-        props.put(ResourceProvider.PROPERTY_ROOT, targetRootPath);
+        props.put(ResourceProvider.PROPERTY_ROOT, rootPath);
         props.put(getClass().getName(), bundle.getBundleId());
 
-        log.info("Before Register RARPS with props: '{}'", props);
         serviceRegistration = bundle.getBundleContext().registerService(
-            new String[] {ResourceProvider.class.getName(), DynamicComponentResourceProvider.class.getName()}, this, props
+            new String[] {ResourceProvider.class.getName()}, this, props
         );
-        log.info("After Register RARPS, service registration: '{}'", serviceRegistration);
-        active = true;
+        log.debug("Registered Resource Provider with properties: '{}'", props);
         return (Long) serviceRegistration.getReference().getProperty(Constants.SERVICE_ID);
     }
 
@@ -76,25 +104,34 @@ public class DynamicComponentResourceProviderHandler
         }
     }
 
-    @Override
-    public boolean isActive() {
-        return active;
+    public DynamicComponentTenant getTenant() {
+        return tenant;
     }
 
-    @Override
-    public String getTargetRootPath() {
-        return targetRootPath;
+    //---------- Observation
+
+    /**
+     * Reports the changes below the Target Root to the Resource Change Listeners
+     *
+     * @param changes Changes of the repository below the Target Root
+     * @return False if the Resource Provider is not started yet and the changes are dropped
+     */
+    public boolean reportChanges(List<ResourceChange> changes) {
+        ProviderContext providerContext = getProviderContext();
+        if(providerContext == null) {
+            return false;
+        }
+        // Other instances of a cluster get the changes through their own repository observation
+        providerContext.getObservationReporter().reportChanges(changes, false);
+        return true;
     }
 
-//    @Override
-//    public List<String> getProvidedComponentPaths() {
-//        return providedComponentPaths;
-//    }
+    //---------- Resource Provider
 
     @Override
     public Resource getResource(ResolveContext ctx, String path, ResourceContext resourceContext, Resource parent) {
+        long start = System.nanoTime();
         ResourceResolver resourceResolver = ctx.getResourceResolver();
-        log.info("Get Resource, path: '{}', parent: '{}', provider root: '{}'", path, parent, providerRootPath);
         String resourcePath;
         if(path.startsWith("/")) {
             resourcePath = path;
@@ -102,62 +139,85 @@ public class DynamicComponentResourceProviderHandler
             resourcePath = parent.getPath() + "/" + path;
         }
         Resource answer = null;
-        if(resourcePath.startsWith(providerRootPath)) {
-            answer = resourceResolver.getResource(resourcePath);
-        } else if(resourcePath.equals(targetRootPath)) {
-            log.info("1. Before Getting Resource from Parent, path: '{}'", resourcePath);
-            answer = ctx.getParentResourceProvider().getResource(ctx.getParentResolveContext(), resourcePath, resourceContext, parent);
-            log.info("1. After Getting Resource from Parent, path: '{}', resource: '{}'", resourcePath, answer);
+        Existence existence = null;
+        Lookup lookup;
+        String providerRootPath = tenant.getProviderRootPath();
+        if(resourcePath.equals(providerRootPath) || resourcePath.startsWith(providerRootPath + "/")) {
+            // Inside a Provider Root which is only served from the repository
+            lookup = Lookup.PROVIDER_ROOT;
+            answer = getParentResource(ctx, resourcePath, resourceContext, parent);
+        } else if(resourcePath.indexOf('/', tenant.getTargetRootPath().length() + 1) >= 0) {
+            // Below a child of the Target Root which is never a Dynamic Component
+            lookup = Lookup.PASSTHROUGH;
+            answer = getParentResource(ctx, resourcePath, resourceContext, parent);
+        } else if(resourcePath.equals(tenant.getTargetRootPath())) {
+            lookup = Lookup.TARGET_ROOT;
+            answer = getParentResource(ctx, resourcePath, resourceContext, parent);
             if(answer == null) {
-                Resource source = resourceResolver.getResource(providerRootPath);
-                answer = createSyntheticFromResource(resourceResolver, source, resourcePath);
+                DynamicComponentDefinition source = tenant.getIndex().getProviderRoot();
+                if(source != null) {
+                    answer = createSyntheticFromDefinition(resourceResolver, source, resourcePath);
+                }
+            }
+        } else {
+            DynamicComponentExistenceCache existenceCache = tenant.getExistenceCache();
+            existence = existenceCache.get(resourcePath);
+            metrics.recordExistenceCache(existence != null);
+            if(existence == null && existenceCache.isOverflowed()) {
+                metrics.recordExistenceCacheOverflow();
+            }
+            lookup = Lookup.MISS;
+            if(existence == Existence.DYNAMIC) {
+                // There is no static node for any user -> skip the parent lookup if it is in the Index
+                answer = tenant.getDynamicComponent(resourceResolver, resourcePath);
+                if(answer != null) {
+                    lookup = Lookup.DYNAMIC_HIT;
+                }
             }
-        } else if(resourcePath.startsWith(targetRootPath)) {
-            log.info("2. Before Getting Resource from Parent, path: '{}'", resourcePath);
-            answer = ctx.getParentResourceProvider().getResource(ctx.getParentResolveContext(), resourcePath, resourceContext, parent);
-            log.info("2. After Getting Resource from Parent, path: '{}', resource: '{}'", resourcePath, answer);
             if(answer == null) {
-                int index = resourcePath.lastIndexOf('/');
-                if (index > 0 && index < (resourcePath.length() - 1)) {
-                    String name = resourcePath.substring(index + 1);
-                    String providedPath = providerRootPath + "/" + name;
-                    Resource source = resourceResolver.getResource(providedPath);
-                    if (source != null && !source.isResourceType(RESOURCE_TYPE_NON_EXISTING)) {
-                        answer = createSyntheticFromResource(resourceResolver, source, resourcePath);
+                answer = getParentResource(ctx, resourcePath, resourceContext, parent);
+                if(answer != null) {
+                    lookup = Lookup.STATIC_HIT;
+                } else {
+                    answer = tenant.getDynamicComponent(resourceResolver, resourcePath);
+                    if(answer != null) {
+                        lookup = Lookup.DYNAMIC_HIT;
                     }
                 }
             }
-        } else {
-            answer = resourceResolver.getResource(resourcePath);
         }
-        log.info("Return resource: '{}'", answer);
+        metrics.recordLookup(lookup, System.nanoTime() - start);
+        if(diagnostics.isTraced()) {
+            log.info("Get Resource, path: '{}', existence: '{}', resource: '{}'", resourcePath, existence, answer);
+        }
         return answer;
     }
 
+    @SuppressWarnings("unchecked")
+    private Resource getParentResource(ResolveContext ctx, String resourcePath, ResourceContext resourceContext, Resource parent) {
+        return ctx.getParentResourceProvider().getResource(ctx.getParentResolveContext(), resourcePath, resourceContext, parent);
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     public Iterator<Resource> listChildren(ResolveContext ctx, Resource parent) {
+        long start = System.nanoTime();
         Iterator<Resource> answer;
-        log.info("List Children, resolve-context: '{}', parent: '{}'", ctx, parent);
         String resourcePath = parent.getPath();
-        ResourceResolver resourceResolver = ctx.getResourceResolver();
-        if(resourcePath.equals(providerRootPath)) {
-            answer = parent.listChildren();
-        } else if(resourcePath.startsWith(targetRootPath)) {
-            Iterator<Resource> i = ctx.getParentResourceProvider().listChildren(ctx.getParentResolveContext(), parent);
-            List<Resource> items = new ArrayList<>();
-            while(i.hasNext()) {
-                items.add(i.next());
-            }
-            Resource provider = resourceResolver.getResource(providerRootPath);
-            i = provider.listChildren();
-            while(i.hasNext()) {
-                Resource child = i.next();
-                items.add(createSyntheticFromResource(resourceResolver, child, targetRootPath + "/" + child.getName()));
-            }
-            answer = items.iterator();
+        if(resourcePath.equals(tenant.getTargetRootPath())) {
+            // Static children first, Dynamic Components are created lazily when the caller gets to them
+            DynamicComponentIndex index = tenant.getIndex();
+            answer = new DynamicComponentIterator(
+                ctx.getParentResourceProvider().listChildren(ctx.getParentResolveContext(), parent),
+                index, ctx.getResourceResolver(), resourcePath
+            );
+            metrics.recordListChildren(index.size(), System.nanoTime() - start);
         } else {
             answer = ctx.getParentResourceProvider().listChildren(ctx.getParentResolveContext(), parent);
         }
+        if(diagnostics.isTraced()) {
+            log.info("List Children, parent: '{}', has children: '{}'", resourcePath, answer != null && answer.hasNext());
+        }
         return answer != null && answer.hasNext() ? answer : null;
     }
 
@@ -0,0 +1,117 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+import static org.apache.sling.dynamic.core.DynamicComponent.createSyntheticFromDefinition;
+
+/**
+ * One Target Root / Provider Root pair served by the Resource Provider. It keeps
+ * the in-memory Index of the Dynamic Components of its Provider Folder and the
+ * snapshot of the static children of its Target Root (Existence Cache).
+ */
+public class DynamicComponentTenant
+    implements DynamicComponentResourceProvider
+{
+    private final Logger log = LoggerFactory.getLogger(DynamicComponentTenant.class);
+
+    private final String targetRootPath;
+    private final String providerRootPath;
+    private volatile DynamicComponentIndex index = DynamicComponentIndex.EMPTY;
+    private final DynamicComponentExistenceCache existenceCache;
+
+    /**
+     * @param targetRootPath Path of the Folder the Dynamic Components are added to
+     * @param providerRootPath Path of the Folder the Dynamic Components are defined in
+     * @param existenceCacheSize Maximum number of static children the Existence Cache keeps. 0 disables the cache
+     */
+    public DynamicComponentTenant(String targetRootPath, String providerRootPath, int existenceCacheSize) {
+        this.targetRootPath = targetRootPath;
+        this.providerRootPath = providerRootPath;
+        this.existenceCache = new DynamicComponentExistenceCache(targetRootPath, existenceCacheSize);
+    }
+
+    @Override
+    public synchronized void refreshIndex(Resource dynamicProvider) {
+        index = DynamicComponentIndex.create(dynamicProvider);
+        log.debug("Index refreshed for Provider Root Path: '{}', components: '{}'", providerRootPath, index.size());
+    }
+
+    @Override
+    public synchronized void updateComponent(Resource component) {
+        index = index.withComponent(DynamicComponentDefinition.create(component));
+        log.debug("Index updated for Component: '{}'", component.getName());
+    }
+
+    @Override
+    public synchronized void removeComponent(String name) {
+        index = index.withoutComponent(name);
+        log.debug("Index removed Component: '{}'", name);
+    }
+
+    @Override
+    public void refreshStaticChildren(Resource dynamicTarget) {
+        existenceCache.refresh(dynamicTarget);
+        log.debug("Static Children refreshed for Target Root Path: '{}', children: '{}'", targetRootPath, existenceCache.size());
+    }
+
+    @Override
+    public boolean invalidate(String path) {
+        return existenceCache.invalidate(path);
+    }
+
+    @Override
+    public DynamicComponentExistenceCache getExistenceCache() {
+        return existenceCache;
+    }
+
+    @Override
+    public Collection<String> getComponentNames() {
+        return index.getComponentNames();
+    }
+
+    @Override
+    public String getTargetRootPath() {
+        return targetRootPath;
+    }
+
+    @Override
+    public String getProviderRootPath() {
+        return providerRootPath;
+    }
+
+    /** @return Current Index. It is replaced and not changed when the Provider Folder changes **/
+    public DynamicComponentIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @param resourceResolver Resource Resolver the Dynamic Component is created with
+     * @param resourcePath Path of a direct child of the Target Root
+     * @return Dynamic Component for the given path or null if there is none
+     */
+    public Resource getDynamicComponent(ResourceResolver resourceResolver, String resourcePath) {
+        int start = targetRootPath.length() + 1;
+        // Only the direct children of the Target Root can be Dynamic Components
+        if(resourcePath.length() > start && resourcePath.indexOf('/', start) < 0) {
+            DynamicComponentDefinition source = index.getComponent(resourcePath.substring(start));
+            if (source != null) {
+                return createSyntheticFromDefinition(resourceResolver, source, resourcePath);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "DynamicComponentTenant{" +
+            "target-root-path='" + targetRootPath + '\'' +
+            ", provider-root-path='" + providerRootPath + '\'' +
+            ", components=" + index.size() +
+            '}';
+    }
+}
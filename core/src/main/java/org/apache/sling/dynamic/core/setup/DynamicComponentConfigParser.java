@@ -0,0 +1,176 @@
+package org.apache.sling.dynamic.core.setup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses the entries of the Dynamic Component Configuration in a single pass:
+ * <pre>
+ * &lt;component&gt;=&lt;name&gt;|&lt;value&gt;
+ * &lt;component&gt;=&lt;name&gt;|{&lt;value&gt;;&lt;value&gt;...}
+ * </pre>
+ * A value in curly brackets is a Multi-Value. Any character can be escaped with a
+ * backslash so that '=', '|', '{', '}' and ';' can be part of a name or value.
+ * Errors report the column (starting with 1) where the entry is invalid.
+ *
+ * Tokens are cut out of the entry and only tokens with escapes are copied through
+ * a reusable buffer. A parser is therefore not thread-safe.
+ */
+public class DynamicComponentConfigParser {
+
+    public static final char EQUALS = '=';
+    public static final char VERTICAL_LINE = '|';
+    public static final char OPENING_MULTIPLE = '{';
+    public static final char CLOSING_MULTIPLE = '}';
+    public static final char MULTI_SEPARATOR = ';';
+    public static final char ESCAPE = '\\';
+
+    private final StringBuilder token = new StringBuilder();
+    private String line;
+    private String messageTitle;
+    private int position;
+    /** Start of the characters that are not yet copied into the buffer **/
+    private int segment;
+    private boolean escaped;
+
+    /**
+     * @param line Configuration entry
+     * @param messageTitle Kind of entry used in the error message
+     * @return Parsed entry
+     * @throws IllegalArgumentException If the entry is invalid
+     */
+    public DynamicComponentProperty parse(String line, String messageTitle) {
+        this.line = line;
+        this.messageTitle = messageTitle;
+        position = 0;
+        String component = readToken(EQUALS, "component name");
+        String name = readToken(VERTICAL_LINE, "name");
+        List<String> values;
+        if(position < line.length() && line.charAt(position) == OPENING_MULTIPLE) {
+            values = readMultiValue();
+        } else {
+            String value = readValue();
+            values = Collections.singletonList(value);
+        }
+        return new DynamicComponentProperty(component, name, values);
+    }
+
+    /** Reads a non-empty token up to and including the given delimiter **/
+    private String readToken(char delimiter, String what) {
+        int start = position;
+        startToken();
+        int length = line.length();
+        while(position < length) {
+            char c = line.charAt(position);
+            if(c == ESCAPE) {
+                appendEscaped();
+            } else if(c == delimiter) {
+                String answer = endToken(start);
+                position++;
+                if(answer.isEmpty()) {
+                    throw invalid(start, "the " + what + " is empty");
+                }
+                return answer;
+            } else if(isReserved(c)) {
+                throw invalid(position, "unexpected '" + c + "' in the " + what + ", escape it with '" + ESCAPE + "'");
+            } else {
+                position++;
+            }
+        }
+        throw invalid(position, "expected '" + delimiter + "' after the " + what);
+    }
+
+    /** Reads a single value up to the end of the line **/
+    private String readValue() {
+        int start = position;
+        startToken();
+        int length = line.length();
+        while(position < length) {
+            char c = line.charAt(position);
+            if(c == ESCAPE) {
+                appendEscaped();
+            } else if(c == EQUALS || c == VERTICAL_LINE) {
+                throw invalid(position, "unexpected '" + c + "' in the value, escape it with '" + ESCAPE + "'");
+            } else {
+                position++;
+            }
+        }
+        String answer = endToken(start);
+        if(answer.isEmpty()) {
+            throw invalid(start, "the value is empty");
+        }
+        return answer;
+    }
+
+    /** Reads the values inside the curly brackets which must end the line **/
+    private List<String> readMultiValue() {
+        List<String> answer = new ArrayList<>();
+        position++;
+        int start = position;
+        startToken();
+        int length = line.length();
+        while(position < length) {
+            char c = line.charAt(position);
+            if(c == ESCAPE) {
+                appendEscaped();
+            } else if(c == MULTI_SEPARATOR) {
+                answer.add(endToken(start));
+                start = ++position;
+                startToken();
+            } else if(c == CLOSING_MULTIPLE) {
+                String last = endToken(start);
+                if(++position < length) {
+                    throw invalid(position, "unexpected characters after '" + CLOSING_MULTIPLE + "'");
+                }
+                if(!last.isEmpty() || !answer.isEmpty()) {
+                    answer.add(last);
+                }
+                return answer;
+            } else if(isReserved(c)) {
+                throw invalid(position, "unexpected '" + c + "' in the multi value, escape it with '" + ESCAPE + "'");
+            } else {
+                position++;
+            }
+        }
+        throw invalid(position, "expected '" + CLOSING_MULTIPLE + "' to close the multi value");
+    }
+
+    private void startToken() {
+        escaped = false;
+        segment = position;
+    }
+
+    /** Copies the pending characters and the escaped one into the buffer. Only tokens with escapes use the buffer **/
+    private void appendEscaped() {
+        if(position + 1 >= line.length()) {
+            throw invalid(position, "'" + ESCAPE + "' at the end of the entry");
+        }
+        if(!escaped) {
+            token.setLength(0);
+            escaped = true;
+        }
+        token.append(line, segment, position).append(line.charAt(position + 1));
+        position += 2;
+        segment = position;
+    }
+
+    /** @return Token from the given start up to the current position **/
+    private String endToken(int start) {
+        if(escaped) {
+            return token.append(line, segment, position).toString();
+        }
+        return line.substring(start, position);
+    }
+
+    private static boolean isReserved(char c) {
+        return c == EQUALS || c == VERTICAL_LINE || c == OPENING_MULTIPLE || c == CLOSING_MULTIPLE || c == MULTI_SEPARATOR;
+    }
+
+    /** @param index Index of the invalid character. The column starts with 1 **/
+    private IllegalArgumentException invalid(int index, String message) {
+        return new IllegalArgumentException(
+            messageTitle + " is invalid at column " + (index + 1) + ": " + message + ": '" + line + "'"
+        );
+    }
+}
@@ -0,0 +1,254 @@
+package org.apache.sling.dynamic.core.setup;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams Dynamic Component Definitions from a CSV file. The file is read
+ * in a single pass and only the Dynamic Component that is currently read
+ * is kept in memory so the number of components is not limited.
+ *
+ * Each record starts with its kind followed by the name of the component:
+ * <pre>
+ * # Comment
+ * component,&lt;name&gt;,&lt;title&gt;,&lt;super resource type&gt;
+ * property,&lt;name&gt;,&lt;property name&gt;,&lt;value&gt;[,&lt;value&gt;...]
+ * ref,&lt;name&gt;,&lt;ref name&gt;,&lt;path&gt;
+ * </pre>
+ * The property and ref records of a component must follow its component record.
+ * A property with more than one value is a Multi-Value Property. Fields can be
+ * quoted with double quotes to contain commas, line breaks or (doubled) quotes.
+ * Empty or blank lines and lines starting with '#' are ignored.
+ */
+public class DynamicComponentDefinitionReader
+    implements Iterator<DynamicComponentNode>, Closeable
+{
+    public static final String COMPONENT = "component";
+    public static final String PROPERTY = "property";
+    public static final String REF = "ref";
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final char COMMENT = '#';
+    private static final int END = -1;
+
+    private final BufferedReader reader;
+    private final String group;
+    private final String primaryType;
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private int line = 1;
+    private int recordLine;
+    /** Component record that was read but not returned yet **/
+    private DynamicComponentNode pending;
+    private DynamicComponentNode next;
+    private boolean done;
+
+    /**
+     * @param reader Reader of the CSV file. It is closed with this reader
+     * @param group Component Group of the Dynamic Components
+     * @param primaryType Primary Type of the Dynamic Components
+     */
+    public DynamicComponentDefinitionReader(Reader reader, String group, String primaryType) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.group = group;
+        this.primaryType = primaryType;
+    }
+
+    /** @throws IllegalArgumentException If the file cannot be read or a record is invalid **/
+    @Override
+    public boolean hasNext() {
+        if(next == null && !done) {
+            try {
+                next = readComponent();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to read Dynamic Component Definitions at line: " + line, e);
+            }
+            done = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public DynamicComponentNode next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DynamicComponentNode answer = next;
+        next = null;
+        return answer;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Dynamic Component Definitions are read only");
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /** @return Next Dynamic Component with its Properties and Refs or null if there are no more **/
+    private DynamicComponentNode readComponent() throws IOException {
+        DynamicComponentNode answer = pending;
+        pending = null;
+        while(readRecord()) {
+            String kind = fields.get(0);
+            if(COMPONENT.equals(kind)) {
+                checkSize(4, 4);
+                DynamicComponentNode component = DynamicComponentNode.createComponent(
+                    getName(), fields.get(2), fields.get(3), group, primaryType
+                );
+                if(answer != null) {
+                    pending = component;
+                    return answer;
+                }
+                answer = component;
+            } else if(PROPERTY.equals(kind) || REF.equals(kind)) {
+                if(answer == null || !answer.getName().equals(getName())) {
+                    throw invalid("'" + kind + "' must follow the component record of: '" + fields.get(1) + "'");
+                }
+                if(PROPERTY.equals(kind)) {
+                    checkSize(4, Integer.MAX_VALUE);
+                    answer.setProperty(fields.get(2), fields.subList(3, fields.size()));
+                } else {
+                    checkSize(4, 4);
+                    answer.addChild(DynamicComponentNode.createRef(fields.get(2), fields.get(3)));
+                }
+            } else {
+                throw invalid("Unknown record kind: '" + kind + "'");
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Reads the fields of the next record that is not empty or a comment
+     *
+     * @return False if the end of the file is reached
+     */
+    private boolean readRecord() throws IOException {
+        while(true) {
+            fields.clear();
+            recordLine = line;
+            int c = reader.read();
+            // A line with only blanks is empty as well
+            while(isBlank(c)) {
+                c = reader.read();
+            }
+            if(c == END) {
+                return false;
+            }
+            if(c == COMMENT) {
+                skipLine();
+                continue;
+            }
+            if(isLineEnd(c)) {
+                endLine(c);
+                continue;
+            }
+            while(true) {
+                field.setLength(0);
+                while(isBlank(c)) {
+                    c = reader.read();
+                }
+                boolean quoted = c == QUOTE;
+                if(quoted) {
+                    c = readQuoted();
+                } else {
+                    while(c != SEPARATOR && c != END && !isLineEnd(c)) {
+                        field.append((char) c);
+                        c = reader.read();
+                    }
+                }
+                // Only unquoted fields are trimmed
+                fields.add(quoted ? field.toString() : field.toString().trim());
+                if(c == SEPARATOR) {
+                    c = reader.read();
+                } else {
+                    endLine(c);
+                    return true;
+                }
+            }
+        }
+    }
+
+    /** @return Character after the closing quote **/
+    private int readQuoted() throws IOException {
+        while(true) {
+            int c = reader.read();
+            if(c == END) {
+                throw invalid("Quoted field is not closed");
+            }
+            if(c == QUOTE) {
+                c = reader.read();
+                if(c != QUOTE) {
+                    while(isBlank(c)) {
+                        c = reader.read();
+                    }
+                    if(c != SEPARATOR && c != END && !isLineEnd(c)) {
+                        throw invalid("Unexpected character after a quoted field: '" + (char) c + "'");
+                    }
+                    return c;
+                }
+            } else if(c == '\n') {
+                line++;
+            }
+            field.append((char) c);
+        }
+    }
+
+    private void skipLine() throws IOException {
+        int c = reader.read();
+        while(c != END && !isLineEnd(c)) {
+            c = reader.read();
+        }
+        endLine(c);
+    }
+
+    /** Consumes the '\n' of a '\r\n' line end **/
+    private void endLine(int c) throws IOException {
+        if(c == '\r') {
+            reader.mark(1);
+            if(reader.read() != '\n') {
+                reader.reset();
+            }
+        }
+        if(c != END) {
+            line++;
+        }
+    }
+
+    private static boolean isBlank(int c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isLineEnd(int c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private String getName() {
+        String answer = fields.get(1);
+        if(answer.isEmpty()) {
+            throw invalid("Component name is empty");
+        }
+        return answer;
+    }
+
+    private void checkSize(int minimum, int maximum) {
+        if(fields.size() < minimum || fields.size() > maximum) {
+            throw invalid("'" + fields.get(0) + "' has an invalid number of fields: " + fields.size());
+        }
+    }
+
+    private IllegalArgumentException invalid(String message) {
+        return new IllegalArgumentException("Dynamic Component Definition is invalid at line " + recordLine + ": " + message);
+    }
+}
@@ -0,0 +1,181 @@
+package org.apache.sling.dynamic.core.setup;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses the Dynamic Component entries of the configuration and validates their
+ * Resource Super Type chains in a Fork Join Pool. The entries are split into as many
+ * chunks as needed to keep the pool busy and each chunk uses its own parser and
+ * Resource Resolver as neither is thread-safe. The resulting Nodes keep the order
+ * of the entries so that they can be written in one ordered batch afterwards.
+ *
+ * A Dynamic Component whose Super Type chain cannot be resolved is still created
+ * (the Super Type might be installed later) but a warning is logged. Resolved
+ * Super Types are shared between the chunks so that common chains are only
+ * walked once.
+ */
+public class DynamicComponentDefinitionTask
+    extends RecursiveTask<List<DynamicComponentNode>>
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(DynamicComponentDefinitionTask.class);
+
+    /** Shared, read only State of all the Tasks of one Setup **/
+    public static class Context {
+        private final ResourceResolverFactory resourceResolverFactory;
+        private final String group;
+        private final String primaryType;
+        private final Map<String, List<DynamicComponentProperty>> additionalProperties;
+        private final Map<String, List<DynamicComponentProperty>> refs;
+        /** Super Types by whether their chain resolves **/
+        private final Map<String, Boolean> superTypes = new ConcurrentHashMap<>();
+
+        /**
+         * @param resourceResolverFactory Factory for the Resource Resolver of each chunk
+         * @param group Component Group of the Dynamic Components
+         * @param primaryType Primary Type of the Dynamic Components
+         * @param additionalProperties Additional Properties by Component name
+         * @param refs Refs by Component name
+         */
+        public Context(
+            ResourceResolverFactory resourceResolverFactory, String group, String primaryType,
+            Map<String, List<DynamicComponentProperty>> additionalProperties,
+            Map<String, List<DynamicComponentProperty>> refs
+        ) {
+            this.resourceResolverFactory = resourceResolverFactory;
+            this.group = group;
+            this.primaryType = primaryType;
+            this.additionalProperties = additionalProperties;
+            this.refs = refs;
+        }
+    }
+
+    private final Context context;
+    private final String[] entries;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+
+    /**
+     * @param context Shared State of the Setup
+     * @param entries Dynamic Component entries of the configuration
+     * @param parallelism Number of threads of the pool which decides the number of chunks
+     */
+    public DynamicComponentDefinitionTask(Context context, String[] entries, int parallelism) {
+        // Two chunks per thread balance uneven chunks without opening too many Resource Resolvers
+        this(context, entries, 0, entries.length, Math.max(1, (entries.length + 2 * parallelism - 1) / (2 * parallelism)));
+    }
+
+    private DynamicComponentDefinitionTask(Context context, String[] entries, int from, int to, int chunkSize) {
+        this.context = context;
+        this.entries = entries;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected List<DynamicComponentNode> compute() {
+        if(to - from <= chunkSize) {
+            return computeChunk();
+        }
+        int middle = (from + to) >>> 1;
+        DynamicComponentDefinitionTask first = new DynamicComponentDefinitionTask(context, entries, from, middle, chunkSize);
+        DynamicComponentDefinitionTask second = new DynamicComponentDefinitionTask(context, entries, middle, to, chunkSize);
+        second.fork();
+        List<DynamicComponentNode> answer = first.compute();
+        answer.addAll(second.join());
+        return answer;
+    }
+
+    private List<DynamicComponentNode> computeChunk() {
+        List<DynamicComponentNode> answer = new ArrayList<>(to - from);
+        DynamicComponentConfigParser parser = new DynamicComponentConfigParser();
+        try (ResourceResolver resourceResolver = context.resourceResolverFactory.getServiceResourceResolver(
+            DynamicComponentSetupService.SETUP_AUTHENTICATION_INFO
+        )) {
+            for(int i = from; i < to; i++) {
+                String entry = entries[i];
+                if(entry == null || entry.trim().isEmpty()) {
+                    continue;
+                }
+                DynamicComponentProperty dynamicComponent = parser.parse(entry, "Dynamic Component");
+                String superType = dynamicComponent.getValue();
+                if(!isResolvable(resourceResolver, superType)) {
+                    log.warn(
+                        "Dynamic Component: '{}' has a Super Type: '{}' that cannot be resolved, create it anyway",
+                        dynamicComponent.getComponent(), superType
+                    );
+                }
+                answer.add(createNode(dynamicComponent));
+            }
+        } catch (LoginException e) {
+            throw new IllegalStateException("Cannot Access Resource Resolver", e);
+        }
+        return answer;
+    }
+
+    private DynamicComponentNode createNode(DynamicComponentProperty dynamicComponent) {
+        String name = dynamicComponent.getComponent();
+        DynamicComponentNode answer = DynamicComponentNode.createComponent(
+            name, dynamicComponent.getName(), dynamicComponent.getValue(), context.group, context.primaryType
+        );
+        for(DynamicComponentProperty property: get(context.additionalProperties, name)) {
+            answer.setProperty(property.getName(), property.getValues());
+        }
+        for(DynamicComponentProperty ref: get(context.refs, name)) {
+            answer.addChild(DynamicComponentNode.createRef(ref.getName(), ref.getValue()));
+        }
+        log.debug("Dynamic Component to be reconciled: '{}'", answer);
+        return answer;
+    }
+
+    /** @return True if the Super Type and all its Super Types can be resolved without a cycle **/
+    private boolean isResolvable(ResourceResolver resourceResolver, String superType) {
+        Set<String> chain = new LinkedHashSet<>();
+        Boolean answer = null;
+        String current = superType;
+        while(answer == null) {
+            if(current == null || current.isEmpty()) {
+                answer = Boolean.TRUE;
+            } else if((answer = context.superTypes.get(current)) == null) {
+                if(!chain.add(current)) {
+                    log.warn("Super Type chain: '{}' contains a cycle", chain);
+                    answer = Boolean.FALSE;
+                } else {
+                    Resource resource = resourceResolver.getResource(current);
+                    if(resource == null) {
+                        answer = Boolean.FALSE;
+                    } else {
+                        current = resource.getResourceSuperType();
+                    }
+                }
+            }
+        }
+        // Every Super Type of the chain resolves the same way as its end
+        for(String type: chain) {
+            context.superTypes.put(type, answer);
+        }
+        return answer;
+    }
+
+    private static List<DynamicComponentProperty> get(Map<String, List<DynamicComponentProperty>> map, String name) {
+        List<DynamicComponentProperty> answer = map.get(name);
+        return answer == null ? Collections.<DynamicComponentProperty>emptyList() : answer;
+    }
+}
@@ -0,0 +1,96 @@
+package org.apache.sling.dynamic.core.setup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Desired State of a Node in the Dynamic Folder: a Dynamic Component
+ * or one of its Refs. Multi-Value Properties are String arrays.
+ */
+public class DynamicComponentNode {
+
+    private final String name;
+    private final Map<String, Object> properties = new LinkedHashMap<>();
+    private final Map<String, DynamicComponentNode> children = new LinkedHashMap<>();
+
+    public DynamicComponentNode(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param name Name of the Dynamic Component
+     * @param title Title of the Dynamic Component
+     * @param superType Resource Super Type the Dynamic Component extends
+     * @param group Component Group
+     * @param primaryType Primary Type of the Dynamic Component
+     * @return Node of the Dynamic Component without any additional Properties or Refs
+     */
+    public static DynamicComponentNode createComponent(String name, String title, String superType, String group, String primaryType) {
+        return new DynamicComponentNode(name)
+            .setProperty("componentGroup", group)
+            .setProperty("jcr:primaryType", primaryType)
+            .setProperty("jcr:title", title)
+            .setProperty("sling:resourceSuperType", superType);
+    }
+
+    /**
+     * @param name Name of the Ref
+     * @param path Path the Ref points to
+     * @return Node of a Ref of a Dynamic Component
+     */
+    public static DynamicComponentNode createRef(String name, String path) {
+        return new DynamicComponentNode(name)
+            .setProperty("jcr:primaryType", "nt:unstructured")
+            .setProperty("jcr:title", name)
+            .setProperty("ref", path);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DynamicComponentNode setProperty(String name, Object value) {
+        properties.put(name, value);
+        return this;
+    }
+
+    public DynamicComponentNode setProperty(String name, List<String> values) {
+        if(values.size() == 1) {
+            properties.put(name, values.get(0));
+        } else {
+            properties.put(name, values.toArray(new String[values.size()]));
+        }
+        return this;
+    }
+
+    /** @param child Child Node which replaces an already added one with the same name **/
+    public DynamicComponentNode addChild(DynamicComponentNode child) {
+        children.put(child.getName(), child);
+        return this;
+    }
+
+    public Map<String, Object> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    public String getPrimaryType() {
+        Object answer = properties.get("jcr:primaryType");
+        return answer == null ? null : answer.toString();
+    }
+
+    public List<DynamicComponentNode> getChildren() {
+        return new ArrayList<>(children.values());
+    }
+
+    @Override
+    public String toString() {
+        return "DynamicComponentNode{" +
+            "name='" + name + '\'' +
+            ", properties=" + properties +
+            ", children=" + children.values() +
+            '}';
+    }
+}
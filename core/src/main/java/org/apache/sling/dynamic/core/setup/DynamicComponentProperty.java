@@ -0,0 +1,46 @@
+package org.apache.sling.dynamic.core.setup;
+
+import java.util.List;
+
+/**
+ * Parsed entry of the Dynamic Component Configuration: the Component it
+ * belongs to, the Name (a Title, Property or Ref Name) and its Values.
+ */
+public class DynamicComponentProperty {
+
+    private final String component;
+    private final String name;
+    private final List<String> values;
+
+    public DynamicComponentProperty(String component, String name, List<String> values) {
+        this.component = component;
+        this.name = name;
+        this.values = values;
+    }
+
+    public String getComponent() {
+        return component;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return First Value or null if there are no Values **/
+    public String getValue() {
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "DynamicComponentProperty{" +
+            "component='" + component + '\'' +
+            ", name='" + name + '\'' +
+            ", values=" + values +
+            '}';
+    }
+}
@@ -0,0 +1,281 @@
+package org.apache.sling.dynamic.core.setup;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Brings the Nodes of a Folder in line with their Desired State. Only the
+ * Nodes that differ are created, updated or deleted. If nothing differs nothing
+ * is written.
+ *
+ * The Desired State is streamed through {@link #start(Resource, boolean)},
+ * {@link #add(DynamicComponentNode)} and {@link #finish()} so that only the names
+ * of the added Nodes are kept. While reconciling the changes are committed in batches
+ * so that the transient space stays bounded however large the Desired State is. When
+ * all Nodes are replaced the changes are committed once in {@link #finish()} so that
+ * the Folder is never seen with deleted but not yet replaced Nodes.
+ *
+ * System Properties (names starting with 'jcr:') that are not part of the
+ * Desired State are left alone. A Node whose Primary Type differs is
+ * replaced as the Primary Type cannot be changed through a Value Map.
+ */
+public class DynamicComponentReconciler {
+
+    /** Number of changed Nodes that are committed together while reconciling **/
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String SYSTEM_PROPERTY_PREFIX = "jcr:";
+    private static final String PRIMARY_TYPE = "jcr:primaryType";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ResourceResolver resourceResolver;
+    private final int batchSize;
+    private int created;
+    private int updated;
+    private int deleted;
+    private Resource folder;
+    private boolean replace;
+    private Set<String> names;
+    /** Number of changed Nodes at the start and at the last commit **/
+    private int started;
+    private int committed;
+
+    /**
+     * @param resourceResolver Resource Resolver the changes are written with
+     */
+    public DynamicComponentReconciler(ResourceResolver resourceResolver) {
+        this(resourceResolver, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param resourceResolver Resource Resolver the changes are written with
+     * @param batchSize Number of changed Nodes that are committed together while reconciling
+     */
+    public DynamicComponentReconciler(ResourceResolver resourceResolver, int batchSize) {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("Batch Size must be positive: " + batchSize);
+        }
+        this.resourceResolver = resourceResolver;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts a streamed reconciliation of the children of the given Folder
+     *
+     * @param folder Folder whose children are reconciled
+     * @param replace If true all existing children are deleted and created again.
+     *                The deletions are committed together with their replacements
+     * @throws PersistenceException If an existing child could not be deleted
+     */
+    public void start(Resource folder, boolean replace) throws PersistenceException {
+        this.folder = folder;
+        this.replace = replace;
+        names = new HashSet<>();
+        started = getChanges();
+        committed = started;
+        if(replace) {
+            for(Resource child: getChildren(folder)) {
+                resourceResolver.delete(child);
+                deleted++;
+            }
+        }
+    }
+
+    /**
+     * Reconciles the given child of the Folder. The changes are committed once a batch is
+     * full unless all children are replaced
+     *
+     * @param node Desired State of a child of the Folder. A later Node with the same name replaces an earlier one
+     * @throws PersistenceException If the changes could not be written
+     */
+    public void add(DynamicComponentNode node) throws PersistenceException {
+        if(folder == null) {
+            throw new IllegalStateException("Reconciliation is not started");
+        }
+        names.add(node.getName());
+        reconcileChild(folder, node);
+        if(!replace && getChanges() - committed >= batchSize) {
+            resourceResolver.commit();
+            committed = getChanges();
+            log.debug("Dynamic Folder: '{}' batch committed, changed Nodes so far: '{}'", folder.getPath(), committed);
+        }
+    }
+
+    /**
+     * Deletes the children of the Folder that were not added and commits the remaining changes
+     *
+     * @return True if the Folder was changed
+     * @throws PersistenceException If the changes could not be written
+     */
+    public boolean finish() throws PersistenceException {
+        if(folder == null) {
+            throw new IllegalStateException("Reconciliation is not started");
+        }
+        if(!replace) {
+            for(Resource child: getChildren(folder)) {
+                if(!names.contains(child.getName())) {
+                    resourceResolver.delete(child);
+                    deleted++;
+                }
+            }
+        }
+        boolean changed = getChanges() > started || resourceResolver.hasChanges();
+        if(resourceResolver.hasChanges()) {
+            resourceResolver.commit();
+        }
+        if(changed) {
+            log.info(
+                "Dynamic Folder: '{}' reconciled, created: '{}', updated: '{}', deleted: '{}'",
+                folder.getPath(), created, updated, deleted
+            );
+        } else {
+            log.info("Dynamic Folder: '{}' is up to date", folder.getPath());
+        }
+        folder = null;
+        names = null;
+        return changed;
+    }
+
+    /** @return Number of Nodes created, updated or deleted so far **/
+    private int getChanges() {
+        return created + updated + deleted;
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    private void reconcileChildren(Resource parent, Collection<DynamicComponentNode> nodes) throws PersistenceException {
+        Map<String, DynamicComponentNode> desired = new HashMap<>();
+        for(DynamicComponentNode node: nodes) {
+            desired.put(node.getName(), node);
+        }
+        List<Resource> obsolete = new ArrayList<>();
+        Iterator<Resource> i = parent.listChildren();
+        while(i.hasNext()) {
+            Resource child = i.next();
+            if(!desired.containsKey(child.getName())) {
+                obsolete.add(child);
+            }
+        }
+        for(Resource child: obsolete) {
+            resourceResolver.delete(child);
+            deleted++;
+        }
+        for(DynamicComponentNode node: nodes) {
+            reconcileChild(parent, node);
+        }
+    }
+
+    private void reconcileChild(Resource parent, DynamicComponentNode node) throws PersistenceException {
+        Resource existing = parent.getChild(node.getName());
+        if(
+            existing != null && node.getPrimaryType() != null
+            && !isSame(node.getPrimaryType(), existing.getValueMap().get(PRIMARY_TYPE))
+        ) {
+            resourceResolver.delete(existing);
+            deleted++;
+            existing = null;
+        }
+        if(existing == null) {
+            create(parent, node);
+        } else {
+            update(existing, node);
+            reconcileChildren(existing, node.getChildren());
+        }
+    }
+
+    private static List<Resource> getChildren(Resource parent) {
+        List<Resource> answer = new ArrayList<>();
+        Iterator<Resource> i = parent.listChildren();
+        while(i.hasNext()) {
+            answer.add(i.next());
+        }
+        return answer;
+    }
+
+    private void create(Resource parent, DynamicComponentNode node) throws PersistenceException {
+        Resource resource = resourceResolver.create(parent, node.getName(), node.getProperties());
+        created++;
+        for(DynamicComponentNode child: node.getChildren()) {
+            create(resource, child);
+        }
+    }
+
+    private void update(Resource existing, DynamicComponentNode node) {
+        ValueMap current = existing.getValueMap();
+        Map<String, Object> changes = new HashMap<>();
+        for(Entry<String, Object> entry: node.getProperties().entrySet()) {
+            if(!isSame(entry.getValue(), current.get(entry.getKey()))) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        List<String> removals = new ArrayList<>();
+        for(String name: current.keySet()) {
+            if(!name.startsWith(SYSTEM_PROPERTY_PREFIX) && !node.getProperties().containsKey(name)) {
+                removals.add(name);
+            }
+        }
+        if(changes.isEmpty() && removals.isEmpty()) {
+            return;
+        }
+        ModifiableValueMap properties = existing.adaptTo(ModifiableValueMap.class);
+        if(properties == null) {
+            throw new IllegalStateException("Dynamic Component: '" + existing.getPath() + "' cannot be modified");
+        }
+        properties.putAll(changes);
+        for(String name: removals) {
+            properties.remove(name);
+        }
+        updated++;
+        log.debug("Dynamic Component: '{}' updated, changes: '{}', removals: '{}'", existing.getPath(), changes, removals);
+    }
+
+    /** @return True if both values are the same. Arrays are compared by their elements **/
+    private static boolean isSame(Object desired, Object current) {
+        if(desired == null || current == null) {
+            return desired == current;
+        }
+        if(desired.getClass().isArray() && current.getClass().isArray()) {
+            int length = Array.getLength(desired);
+            if(length != Array.getLength(current)) {
+                return false;
+            }
+            for(int i = 0; i < length; i++) {
+                if(!isSame(Array.get(desired, i), Array.get(current, i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if(desired.getClass().isArray() || current.getClass().isArray()) {
+            return false;
+        }
+        return desired.equals(current) || desired.toString().equals(current.toString());
+    }
+}
@@ -1,4 +1,28 @@
 package org.apache.sling.dynamic.core.setup;
 
+/**
+ * Setup of the Dynamic Components. The Setup runs in the background
+ * and its State can be used by Health Checks to gate traffic until
+ * the Dynamic Components are available.
+ */
 public interface DynamicComponentSetup {
+
+    enum State {
+        /** Setup is scheduled but not started yet **/
+        PENDING,
+        /** Setup is writing the Dynamic Components **/
+        RUNNING,
+        /** Dynamic Components are written and handed to the Resource Provider **/
+        READY,
+        /** Setup failed, see {@link #getFailure()} **/
+        FAILED
+    }
+
+    State getState();
+
+    /** @return True if the Dynamic Components are set up **/
+    boolean isReady();
+
+    /** @return Cause of the failure or null if the Setup did not fail **/
+    Throwable getFailure();
 }
@@ -0,0 +1,82 @@
+package org.apache.sling.dynamic.core.setup;
+
+import org.apache.felix.hc.api.FormattingResultLog;
+import org.apache.felix.hc.api.HealthCheck;
+import org.apache.felix.hc.api.Result;
+import org.apache.felix.hc.api.ResultLog;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports the State of every Dynamic Component Setup so that traffic can be gated until
+ * the Dynamic Components are available. A running Setup is temporarily unavailable and
+ * a failed one is critical with its cause.
+ *
+ * The Felix Health Check API is imported optionally so this component is only active if
+ * the Health Checks are installed.
+ */
+@Component(
+    service = HealthCheck.class,
+    property = {
+        HealthCheck.NAME + "=Dynamic Component Setup",
+        HealthCheck.TAGS + "=dynamicComponents",
+        HealthCheck.TAGS + "=systemready"
+    }
+)
+public class DynamicComponentSetupHealthCheck
+    implements HealthCheck {
+
+    /** Service Property of the Setup with its Dynamic Folder **/
+    static final String TARGET_PATH_PROPERTY = "dynamic.component.target.path";
+
+    /** Dynamic Folder of each Setup **/
+    private final Map<DynamicComponentSetup, String> setups = new ConcurrentHashMap<>();
+
+    @Reference(
+        cardinality = ReferenceCardinality.MULTIPLE,
+        policy = ReferencePolicy.DYNAMIC,
+        unbind = "unbindSetup"
+    )
+    void bindSetup(DynamicComponentSetup setup, Map<String, Object> properties) {
+        Object targetPath = properties.get(TARGET_PATH_PROPERTY);
+        setups.put(setup, targetPath == null ? "unknown" : targetPath.toString());
+    }
+
+    void unbindSetup(DynamicComponentSetup setup) {
+        setups.remove(setup);
+    }
+
+    @Override
+    public Result execute() {
+        FormattingResultLog log = new FormattingResultLog();
+        if(setups.isEmpty()) {
+            log.info("No Dynamic Component Setup is configured");
+        }
+        for(Map.Entry<DynamicComponentSetup, String> entry: setups.entrySet()) {
+            DynamicComponentSetup setup = entry.getKey();
+            String targetPath = entry.getValue();
+            DynamicComponentSetup.State state = setup.getState();
+            switch(state) {
+                case READY:
+                    log.info("Dynamic Components of: '{}' are set up", targetPath);
+                    break;
+                case FAILED:
+                    Throwable failure = setup.getFailure();
+                    log.add(new ResultLog.Entry(
+                        Result.Status.CRITICAL,
+                        "Dynamic Component Setup of: '" + targetPath + "' failed: " + failure,
+                        failure instanceof Exception ? (Exception) failure : null
+                    ));
+                    break;
+                default:
+                    log.temporarilyUnavailable("Dynamic Component Setup of: '{}' is: '{}'", targetPath, state);
+            }
+        }
+        return new Result(log);
+    }
+}
@@ -9,6 +9,7 @@ import org.apache.sling.dynamic.core.DynamicComponentResourceManager;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
@@ -16,13 +17,31 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Writes the configured Dynamic Components into the Dynamic Folder. The Resource Provider
+ * is registered right away and the Setup itself runs on a dedicated thread so that the
+ * activation does not wait for the repository. The Resource Provider picks up the Dynamic
+ * Components once the Setup is done which is reported through {@link #getState()}.
+ * The Dynamic Components are parsed and validated in parallel and then written in
+ * configuration order with a single Resource Resolver.
+ */
 @Component(
     service= DynamicComponentSetup.class,
     immediate = true
@@ -38,6 +57,10 @@ public class DynamicComponentSetupService
             name = "Dynamic Root Path",
             description = "Dynamic Location Root Path")
         String dynamic_component_root_path() default "/conf/wknd/settings";
+        @AttributeDefinition(
+            name = "Dynamic Target Path",
+            description = "Path to the Folder where the Dynamic Components are added to. The Dynamic Component Resource Provider is mounted on it")
+        String dynamic_component_target_path() default "/apps/wknd/components";
         @AttributeDefinition(
             name = "Component Group of the Dynamic Components",
             description = "Component Group Name")
@@ -48,22 +71,38 @@ public class DynamicComponentSetupService
         String dynamic_component_primary_type() default "cq:Component";
         @AttributeDefinition(
             name = "List of Dynamic Components",
-            description = "Dynamic Component Definitions in format: <name>=<title>:<super resource type>")
-        String[] dynamic_component_names() default "button=Button-default:core/wcm/components/button/v1/button";
+            description = "Dynamic Component Definitions in format: <name>=<title>|<super resource type>. Reserved characters are escaped with a backslash")
+        String[] dynamic_component_names() default "button=Button-default|core/wcm/components/button/v1/button";
         @AttributeDefinition(
             name = "Additional Properties for Dynamic Components",
-            description = "Dynamic Component Additional Properties in format: <name>=<property name>|<property value>")
+            description = "Dynamic Component Additional Properties in format: <name>=<property name>|<property value> or <name>=<property name>|{<value>;<value>}")
         String[] dynamic_component_additional_properties() default "";
         @AttributeDefinition(
             name = "References for Dynamic Components",
             description = "Dynamic Component Reference in format: <name>=<path>")
         String[] dynamic_component_refs() default "";
+        @AttributeDefinition(
+            name = "Reconcile Dynamic Components",
+            description = "If enabled only the Dynamic Components that differ from the configuration are written in batches. Otherwise all are deleted and created again in a single commit which keeps the whole Definition File in memory")
+        boolean dynamic_component_reconcile() default true;
+        @AttributeDefinition(
+            name = "Dynamic Component Definition File",
+            description = "Optional CSV file with further Dynamic Component Definitions that is streamed into the Dynamic Folder. "
+                + "A repository path or a bundle entry prefixed with 'bundle:'")
+        String dynamic_component_definition_file() default "";
+        @AttributeDefinition(
+            name = "Setup Parallelism",
+            description = "Number of threads that parse the Dynamic Components and validate their Super Types. 0 uses one per processor")
+        int dynamic_component_setup_parallelism() default 0;
     }
 
     public static final String DYNAMIC_COMPONENT_FOLDER_NAME = "dynamic";
-
-    private static final String WKND_COMPONENTS_FOLDER_PATH = "/apps/wknd/components";
-    private static final String DYNAMIC_COMPONENTS_FOLDER_PATH = "/apps/dynamicComponents/components";
+    public static final String BUNDLE_PREFIX = "bundle:";
+    /** Sub Service that writes the Dynamic Folder and validates the Super Types **/
+    public static final String SETUP_SUBSERVICE = "dynamic-component-setup";
+    static final Map<String, Object> SETUP_AUTHENTICATION_INFO = Collections.<String, Object>singletonMap(
+        ResourceResolverFactory.SUBSERVICE, SETUP_SUBSERVICE
+    );
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -73,16 +112,97 @@ public class DynamicComponentSetupService
     @Reference
     DynamicComponentResourceManager dynamicComponentResourceManager;
 
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
     private BundleContext bundleContext;
+    private String targetPath;
+    private ExecutorService executor;
+    private volatile State state = State.PENDING;
+    private volatile Throwable failure;
 
     @Activate
-    private void activate(BundleContext bundleContext, Configuration configuration) {
+    private void activate(BundleContext bundleContext, final Configuration configuration) {
         log.info("Activate Started, bundle context: '{}'", bundleContext);
         this.bundleContext = bundleContext;
+        targetPath = configuration.dynamic_component_target_path();
+        // The Tenant is available right away and fills in when the Setup is done
+        dynamicComponentResourceManager.register(
+            targetPath, configuration.dynamic_component_root_path() + "/" + DYNAMIC_COMPONENT_FOLDER_NAME
+        );
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread answer = new Thread(runnable, "Dynamic Component Setup: " + configuration.dynamic_component_root_path());
+                answer.setDaemon(true);
+                return answer;
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                state = State.RUNNING;
+                try {
+                    setup(configuration);
+                    state = State.READY;
+                    log.info("Dynamic Component Setup is ready");
+                } catch (RuntimeException e) {
+                    failure = e;
+                    state = State.FAILED;
+                    log.error("Dynamic Component Setup failed", e);
+                } catch (Throwable t) {
+                    // An Error must not leave the Setup running forever
+                    failure = t;
+                    state = State.FAILED;
+                    log.error("Dynamic Component Setup failed", t);
+                    throw t;
+                }
+            }
+        });
+        log.info("Activate Done, Setup scheduled");
+    }
+
+    @Deactivate
+    private void deactivate() {
+        if(executor != null) {
+            // A running Setup is given the chance to finish its commit before it is interrupted
+            executor.shutdown();
+            try {
+                if(!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    log.warn("Dynamic Component Setup did not finish in time and is interrupted");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        if(targetPath != null) {
+            dynamicComponentResourceManager.unregister(targetPath);
+            targetPath = null;
+        }
+    }
+
+    @Override
+    public State getState() {
+        return state;
+    }
+
+    @Override
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    @Override
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    private void setup(Configuration configuration) {
         final String rootPath = configuration.dynamic_component_root_path();
         final String group = configuration.dynamic_component_group();
         final String primaryType = configuration.dynamic_component_primary_type();
-        try (ResourceResolver resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null)) {
+        try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(SETUP_AUTHENTICATION_INFO)) {
             Resource root = resourceResolver.getResource(rootPath);
             if(root == null) {
                 throw new IllegalArgumentException("Root Path: '" + rootPath + "' does not exist");
@@ -90,199 +210,124 @@ public class DynamicComponentSetupService
             Resource target = root.getChild(DYNAMIC_COMPONENT_FOLDER_NAME);
             log.info("Dynamic Folder looked up: '{}'", target);
             if(target == null) {
+                // Committed together with the Dynamic Components
                 target = resourceResolver.create(root, DYNAMIC_COMPONENT_FOLDER_NAME, new HashMap<String, Object>() {{
                         put("jcr:primaryType", "sling:Folder");
                     }}
                 );
-                resourceResolver.commit();
                 log.info("Dynamic Folder created: '{}'", target);
-            } else {
-                // Remove any existing children
-                Iterator<Resource> i = target.listChildren();
-                while(i.hasNext()) {
-                    resourceResolver.delete(i.next());
-                }
-                resourceResolver.commit();
             }
-            Map<String, List<Property>> additionalProperties = new HashMap<>();
+            // Additional Properties and Refs are only looked up by the Dynamic Components and so parsed upfront
+            DynamicComponentConfigParser parser = new DynamicComponentConfigParser();
+            Map<String, List<DynamicComponentProperty>> additionalProperties = new HashMap<>();
             for(String additionalProperty: configuration.dynamic_component_additional_properties()) {
-                Property component = new Property(additionalProperty, "Dynamic Additional Property");
-                if(!component.isComponent()) {
-                    throw new IllegalArgumentException("Addition Properties is not a component: '" + additionalProperty + "'");
+                if(!isBlank(additionalProperty)) {
+                    addItemToListMap(additionalProperties, parser.parse(additionalProperty, "Dynamic Additional Property"));
                 }
-                addItemToListMap(additionalProperties, component);
             }
-            Map<String, List<Property>> dynamicRefs = new HashMap<>();
+            Map<String, List<DynamicComponentProperty>> dynamicRefs = new HashMap<>();
             for(String ref: configuration.dynamic_component_refs()) {
-                Property component = new Property(ref, "Dynamic Ref");
-                if(!component.isComponent()) {
-                    throw new IllegalArgumentException("Dynamic Ref is not a component: '" + ref + "'");
+                if(!isBlank(ref)) {
+                    addItemToListMap(dynamicRefs, parser.parse(ref, "Dynamic Ref"));
                 }
-                addItemToListMap(dynamicRefs, component);
             }
             log.info("Dynamic Refs: '{}'", dynamicRefs);
-            for (String dynamicComponentName : configuration.dynamic_component_names()) {
-                final Property dynamicComponent = new Property(dynamicComponentName, "Dynamic Component");
-                if(!dynamicComponent.isComponent()) {
-                    throw new IllegalArgumentException("Dynamic Configuration Name is invalid (split on = does not yield 2 tokens): " + dynamicComponentName);
-                }
-                Map<String, Object> props = new HashMap<String, Object>() {{
-                    put("componentGroup", group);
-                    put("jcr:primaryType", primaryType);
-                    put("jcr:title", dynamicComponent.getName());
-                    put("sling:resourceSuperType", dynamicComponent.getValue());
-                }};
-                List<Property> propertyList = additionalProperties.get(dynamicComponent.getComponent());
-                log.info("Component: '{}', property list: '{}'", dynamicComponent.getComponent(), propertyList);
-                if(propertyList != null) {
-                    for (Property property : propertyList) {
-                        if(property.isSingle()) {
-                            props.put(property.getName(), property.getValue());
-                        } else {
-                            log.info("Add Property as Multi-Value: '{}'", property.getValues());
-                            props.put(property.getName(), property.getValues().toArray());
-                        }
-                    }
-                }
-                log.info("Props for to be created Node: '{}'", props);
-                Resource newTarget = resourceResolver.create(target, dynamicComponent.getComponent(), props);
-                log.info("Newly Created Target: '{}'", newTarget);
-                // Add Dynamic Refs
-                List<Property> refs = dynamicRefs.get(dynamicComponent.getComponent());
-                if(refs != null) {
-                    for (final Property ref : refs) {
-                        Map<String, Object> refProps = new HashMap<String, Object>() {{
-                            put("jcr:primaryType", "nt:unstructured");
-                            put("jcr:title", ref.getName());
-                            put("ref", ref.getValue());
-                        }};
-                        Resource newRef = resourceResolver.create(
-                            newTarget, ref.getName(), refProps
-                        );
+            List<DynamicComponentNode> dynamicComponents = createDynamicComponents(
+                configuration, new DynamicComponentDefinitionTask.Context(
+                    resourceResolverFactory, group, primaryType, additionalProperties, dynamicRefs
+                )
+            );
+            // Nothing is written if the configuration is unchanged. The Definition File is streamed
+            // and the changes are committed in batches. If all Dynamic Components are replaced they
+            // are committed once at the end so that the Dynamic Folder is never seen half written
+            DynamicComponentReconciler reconciler = new DynamicComponentReconciler(resourceResolver);
+            reconciler.start(target, !configuration.dynamic_component_reconcile());
+            for(DynamicComponentNode node: dynamicComponents) {
+                reconciler.add(node);
+            }
+            String definitionFile = configuration.dynamic_component_definition_file();
+            if(definitionFile != null && !definitionFile.isEmpty()) {
+                try (
+                    DynamicComponentDefinitionReader reader = new DynamicComponentDefinitionReader(
+                        openDefinitionFile(resourceResolver, definitionFile), group, primaryType
+                    )
+                ) {
+                    while(reader.hasNext()) {
+                        reconciler.add(reader.next());
                     }
                 }
             }
-            resourceResolver.commit();
+            reconciler.finish();
             log.info("Update the Dynamic Component Resource Manager with Provider Path: '{}'", target.getPath());
-            dynamicComponentResourceManager.update(target.getPath());
+            dynamicComponentResourceManager.update(configuration.dynamic_component_target_path(), target.getPath());
             log.info("Update the Dynamic Component Resource Manager done");
-//        } catch (LoginException e) {
-//            log.error("Cannot Access Resource Resolver", e);
-//        } catch (PersistenceException e) {
-//            log.error("Failed to create Dynamic Component", e);
-//        }
-//        try (ResourceResolver resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null)) {
-            // Now test the setup
-            Resource button = resourceResolver.getResource(WKND_COMPONENTS_FOLDER_PATH + "/" + "button");
-            log.info("Static Button: '{}'", button);
-            Resource button1 = resourceResolver.getResource(WKND_COMPONENTS_FOLDER_PATH + "/" + "button1");
-            log.info("Dynamic Button 1: '{}'", button1);
-            Resource container = resourceResolver.getResource(WKND_COMPONENTS_FOLDER_PATH + "/" + "container");
-            log.info("Static Container: '{}'", container);
-            Resource container1 = resourceResolver.getResource(WKND_COMPONENTS_FOLDER_PATH + "/" + "container1");
-            log.info("Dynamic Container 1: '{}'", container1);
-            Iterator<Resource> i = resourceResolver.listChildren(container1.getParent());
-            int index = 0;
-            while (i.hasNext()) {
-                log.info("{}. Entry: '{}'", index++, i.next());
-            }
         } catch (LoginException e) {
-            log.error("2. Cannot Access Resource Resolver", e);
+            throw new IllegalStateException("Cannot Access Resource Resolver", e);
         } catch (PersistenceException e) {
-            log.error("Failed to create Dynamic Component", e);
-        }
-    }
-
-    private void addItemToListMap(Map<String, List<Property>> target, Property value) {
-        String componentName = value.getComponent();
-        List<Property> propertyList = target.get(componentName);
-        if(propertyList == null) {
-            propertyList = new ArrayList<>();
-            target.put(componentName, propertyList);
+            throw new IllegalStateException("Failed to create Dynamic Component", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read the Dynamic Component Definition File", e);
         }
-        propertyList.add(value);
     }
 
-    public static final String EQUALS = "=";
-    public static final String VERTICAL_LINE = "|";
-    public static final char OPENING_MULTIPLE = '{';
-    public static final char CLOSING_MULTIPLE = '}';
-    public static final String MULTI_SEPARATOR = ";";
-
-    private static class Property {
-        private String component;
-        private String name;
-        private List<String> values = new ArrayList<>();
-
-        public Property(String line, String messageTitle) {
-            String[] split = line.split(EQUALS);
-            if(split.length != 2) {
-                throw new IllegalArgumentException(messageTitle + " is invalid (split on '" + EQUALS + "' does not yield 2 tokens): " + line);
-            }
-            String tempName = split[0];
-            String tempValue = split[1];
-            int index = tempValue.indexOf(VERTICAL_LINE);
-            if( index > 0 && index < tempValue.length() - 1) {
-                String[] splitTemp = tempValue.split("\\" + VERTICAL_LINE);
-                this.component = tempName;
-                this.name = splitTemp[0];
-                tempValue = splitTemp[1];
-                if(tempValue.charAt(0) == OPENING_MULTIPLE && tempValue.charAt(tempValue.length() - 1) == CLOSING_MULTIPLE) {
-                    tempValue = tempValue.substring(1, tempValue.length() - 1);
-                    splitTemp = tempValue.split(MULTI_SEPARATOR);
-                    values.addAll(Arrays.asList(splitTemp));
-                } else {
-                    values.add(tempValue);
-                }
-            } else {
-                this.name = tempName;
-                if(tempValue.charAt(0) == OPENING_MULTIPLE && tempValue.charAt(tempValue.length() - 1) == CLOSING_MULTIPLE) {
-                    tempValue = tempValue.substring(1, tempValue.length() - 1);
-                    String[] splitTemp = tempValue.split(MULTI_SEPARATOR);
-                    values.addAll(Arrays.asList(splitTemp));
-                } else {
-                    values.add(tempValue);
-                }
-            }
+    /**
+     * Parses the Dynamic Components and validates their Super Types in parallel
+     *
+     * @return Dynamic Components in the order of the configuration
+     */
+    private List<DynamicComponentNode> createDynamicComponents(Configuration configuration, DynamicComponentDefinitionTask.Context context) {
+        long start = System.nanoTime();
+        int parallelism = configuration.dynamic_component_setup_parallelism();
+        if(parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
         }
-
-//        public Property(String name, String value) {
-//            this.name = name;
-//            this.value = value;
-//        }
-//
-//        public Property(String name, List<String> values) {
-//            this.name = name;
-//            this.values = values;
-//        }
-
-        public boolean isComponent() { return component != null; }
-        public boolean isEmpty() { return values.isEmpty(); }
-        public boolean isSingle() { return values.size() == 1; }
-
-        public String getComponent() {
-            return component;
+        String[] entries = configuration.dynamic_component_names();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<DynamicComponentNode> answer = pool.invoke(new DynamicComponentDefinitionTask(context, entries, parallelism));
+            log.info(
+                "Dynamic Components parsed and validated: '{}', threads: '{}', time: '{}' ms",
+                answer.size(), parallelism, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+            );
+            return answer;
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
-        public String getName() {
-            return name;
+    /**
+     * @param resourceResolver Resource Resolver to look up a file in the repository
+     * @param path Repository path of the file or bundle entry prefixed with {@link #BUNDLE_PREFIX}
+     * @return Reader of the Definition File
+     * @throws IllegalArgumentException If the file does not exist
+     */
+    private Reader openDefinitionFile(ResourceResolver resourceResolver, String path) throws IOException {
+        InputStream inputStream;
+        if(path.startsWith(BUNDLE_PREFIX)) {
+            URL entry = bundleContext.getBundle().getEntry(path.substring(BUNDLE_PREFIX.length()));
+            inputStream = entry == null ? null : entry.openStream();
+        } else {
+            Resource file = resourceResolver.getResource(path);
+            inputStream = file == null ? null : file.adaptTo(InputStream.class);
         }
-
-        public String getValue() {
-            return values.isEmpty() ? null : values.get(0);
+        if(inputStream == null) {
+            throw new IllegalArgumentException("Dynamic Component Definition File: '" + path + "' does not exist");
         }
+        log.info("Dynamic Component Definition File opened: '{}'", path);
+        return new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+    }
 
-        public List<String> getValues() {
-            return values;
-        }
+    private static boolean isBlank(String entry) {
+        return entry == null || entry.trim().isEmpty();
+    }
 
-        @Override
-        public String toString() {
-            return "Property{" +
-                "component-name='" + component + '\'' +
-                ", name='" + name + '\'' +
-                ", values=" + values +
-                '}';
+    private void addItemToListMap(Map<String, List<DynamicComponentProperty>> target, DynamicComponentProperty value) {
+        String componentName = value.getComponent();
+        List<DynamicComponentProperty> propertyList = target.get(componentName);
+        if(propertyList == null) {
+            propertyList = new ArrayList<>();
+            target.put(componentName, propertyList);
         }
+        propertyList.add(value);
     }
-}
\ No newline at end of file
+}
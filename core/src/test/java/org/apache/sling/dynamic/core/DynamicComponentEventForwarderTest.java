@@ -0,0 +1,219 @@
+package org.apache.sling.dynamic.core;
+
+import org.apache.jackrabbit.api.observation.JackrabbitEvent;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.resource.path.PathSet;
+import org.apache.sling.spi.resource.provider.ObservationReporter;
+import org.apache.sling.spi.resource.provider.ObserverConfiguration;
+import org.apache.sling.spi.resource.provider.ProviderContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The JCR Resource Provider does not report the changes below the Target Root as the
+ * Dynamic Component Resource Provider is mounted there. These tests check that the JCR
+ * Events of the Target Root still reach the Resource Change Listeners through the
+ * Observation Reporter of the Resource Provider.
+ */
+public class DynamicComponentEventForwarderTest {
+
+    private static final String TARGET_ROOT_PATH = "/apps/test/components";
+    private static final String PROVIDER_ROOT_PATH = "/conf/test/settings/dynamic";
+
+    private final List<ResourceChange> reported = new ArrayList<>();
+    private final List<Boolean> distributed = new ArrayList<>();
+    private DynamicComponentResourceProviderHandler provider;
+    private DynamicComponentEventForwarder forwarder;
+
+    @Before
+    public void setup() {
+        provider = new DynamicComponentResourceProviderHandler(
+            new DynamicComponentTenant(TARGET_ROOT_PATH, PROVIDER_ROOT_PATH, DynamicComponentExistenceCache.DEFAULT_SIZE)
+        );
+        forwarder = new DynamicComponentEventForwarder(provider);
+    }
+
+    @Test
+    public void testChangesAreReported() {
+        provider.start(createProviderContext());
+        forwarder.onEvent(events(
+            event(Event.NODE_ADDED, TARGET_ROOT_PATH + "/button", false),
+            event(Event.PROPERTY_CHANGED, TARGET_ROOT_PATH + "/teaser/jcr:title", false),
+            event(Event.PROPERTY_ADDED, TARGET_ROOT_PATH + "/teaser/componentGroup", false),
+            event(Event.NODE_REMOVED, TARGET_ROOT_PATH + "/text", true)
+        ));
+        assertEquals(3, reported.size());
+        assertChange(ChangeType.ADDED, TARGET_ROOT_PATH + "/button", false, reported.get(0));
+        // Both properties are reported as a single change of their Node
+        assertChange(ChangeType.CHANGED, TARGET_ROOT_PATH + "/teaser", false, reported.get(1));
+        assertChange(ChangeType.REMOVED, TARGET_ROOT_PATH + "/text", true, reported.get(2));
+        assertEquals(Collections.singletonList(false), distributed);
+    }
+
+    @Test
+    public void testTargetRootItselfIsReported() {
+        provider.start(createProviderContext());
+        // Events of the Parent of the Target Root only report the Target Root itself
+        forwarder.onEvent(events(
+            event(Event.NODE_REMOVED, "/apps/test/templates", false),
+            event(Event.NODE_REMOVED, TARGET_ROOT_PATH, false),
+            event(Event.PROPERTY_CHANGED, TARGET_ROOT_PATH + "/jcr:title", false),
+            event(Event.NODE_ADDED, TARGET_ROOT_PATH + "-other", false)
+        ));
+        assertEquals(2, reported.size());
+        assertChange(ChangeType.REMOVED, TARGET_ROOT_PATH, false, reported.get(0));
+        assertChange(ChangeType.CHANGED, TARGET_ROOT_PATH, false, reported.get(1));
+    }
+
+    @Test
+    public void testNothingIsReportedBeforeStartOrAfterStop() {
+        assertFalse(provider.reportChanges(Collections.singletonList(new ResourceChange(ChangeType.ADDED, TARGET_ROOT_PATH + "/button", false))));
+        forwarder.onEvent(events(event(Event.NODE_ADDED, TARGET_ROOT_PATH + "/button", false)));
+        provider.start(createProviderContext());
+        provider.stop();
+        forwarder.onEvent(events(event(Event.NODE_ADDED, TARGET_ROOT_PATH + "/button", false)));
+        assertTrue(reported.isEmpty());
+    }
+
+    private static void assertChange(ChangeType type, String path, boolean external, ResourceChange change) {
+        assertEquals(type, change.getType());
+        assertEquals(path, change.getPath());
+        assertEquals(external, change.isExternal());
+    }
+
+    private ProviderContext createProviderContext() {
+        final ObservationReporter observationReporter = new ObservationReporter() {
+            @Override
+            public List<ObserverConfiguration> getObserverConfigurations() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void reportChanges(Iterable<ResourceChange> changes, boolean distribute) {
+                for(ResourceChange change: changes) {
+                    reported.add(change);
+                }
+                distributed.add(distribute);
+            }
+
+            @Override
+            public void reportChanges(ObserverConfiguration config, Iterable<ResourceChange> changes, boolean distribute) {
+                reportChanges(changes, distribute);
+            }
+        };
+        return new ProviderContext() {
+            @Override
+            public ObservationReporter getObservationReporter() {
+                return observationReporter;
+            }
+
+            @Override
+            public PathSet getExcludedPaths() {
+                return PathSet.EMPTY_SET;
+            }
+        };
+    }
+
+    private static Event event(final int type, final String path, final boolean external) {
+        return new JackrabbitEvent() {
+            @Override
+            public boolean isExternal() {
+                return external;
+            }
+
+            @Override
+            public int getType() {
+                return type;
+            }
+
+            @Override
+            public String getPath() {
+                return path;
+            }
+
+            @Override
+            public String getUserID() {
+                return "admin";
+            }
+
+            @Override
+            public String getIdentifier() {
+                return null;
+            }
+
+            @Override
+            public Map getInfo() {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public String getUserData() {
+                return null;
+            }
+
+            @Override
+            public long getDate() {
+                return 0;
+            }
+        };
+    }
+
+    private static EventIterator events(Event... events) {
+        final Iterator<Event> i = Arrays.asList(events).iterator();
+        return new EventIterator() {
+            private long position;
+
+            @Override
+            public Event nextEvent() {
+                position++;
+                return i.next();
+            }
+
+            @Override
+            public Object next() {
+                return nextEvent();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+
+            @Override
+            public void skip(long skipNum) {
+                for(long n = 0; n < skipNum; n++) {
+                    nextEvent();
+                }
+            }
+
+            @Override
+            public long getSize() {
+                return -1;
+            }
+
+            @Override
+            public long getPosition() {
+                return position;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
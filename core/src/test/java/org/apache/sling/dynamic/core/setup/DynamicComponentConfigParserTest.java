@@ -0,0 +1,123 @@
+package org.apache.sling.dynamic.core.setup;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The entries of the Dynamic Component Configuration are typed into the OSGi console so
+ * reserved characters must be escapable and errors must point to the invalid column.
+ */
+public class DynamicComponentConfigParserTest {
+
+    private final DynamicComponentConfigParser parser = new DynamicComponentConfigParser();
+
+    @Test
+    public void testSingleValue() {
+        DynamicComponentProperty property = parser.parse("button=Button|core/wcm/components/button/v1/button", "Test");
+        assertEquals("button", property.getComponent());
+        assertEquals("Button", property.getName());
+        assertEquals(Collections.singletonList("core/wcm/components/button/v1/button"), property.getValues());
+    }
+
+    @Test
+    public void testMultiValue() {
+        DynamicComponentProperty property = parser.parse("button=variants|{primary;secondary;}", "Test");
+        assertEquals(Arrays.asList("primary", "secondary", ""), property.getValues());
+        assertEquals(Collections.<String>emptyList(), parser.parse("button=variants|{}", "Test").getValues());
+        assertEquals(Arrays.asList("", ""), parser.parse("button=variants|{;}", "Test").getValues());
+        assertEquals(Collections.singletonList(";"), parser.parse("button=variants|{\\;}", "Test").getValues());
+    }
+
+    @Test
+    public void testEscapes() {
+        DynamicComponentProperty property = parser.parse("a\\=b=Title \\| \\{x\\}|path\\=1\\\\", "Test");
+        assertEquals("a=b", property.getComponent());
+        assertEquals("Title | {x}", property.getName());
+        assertEquals("path=1\\", property.getValue());
+        property = parser.parse("button=values|{a\\;b;\\}c;d\\{}", "Test");
+        assertEquals(Arrays.asList("a;b", "}c", "d{"), property.getValues());
+        // The parser is reused and an entry without escapes must not see the buffer of the previous one
+        assertEquals("plain", parser.parse("button=Button|plain", "Test").getValue());
+    }
+
+    @Test
+    public void testErrorColumns() {
+        assertInvalid("=Button|path", 1, "the component name is empty");
+        assertInvalid("button=|path", 8, "the name is empty");
+        assertInvalid("button=Button|", 15, "the value is empty");
+        assertInvalid("button", 7, "expected '=' after the component name");
+        assertInvalid("button=Button", 14, "expected '|' after the name");
+        assertInvalid("but{ton=Button|path", 4, "unexpected '{' in the component name");
+        assertInvalid("button=Button|pa=th", 17, "unexpected '=' in the value");
+        assertInvalid("button=values|{a;b", 19, "expected '}' to close the multi value");
+        assertInvalid("button=values|{a;b}c", 20, "unexpected characters after '}'");
+        assertInvalid("button=values|{a|b}", 17, "unexpected '|' in the multi value");
+        assertInvalid("button=Button|path\\", 19, "'\\' at the end of the entry");
+    }
+
+    @Test
+    public void testBlankEntriesAreSkipped() throws Exception {
+        Mockery context = new Mockery();
+        // The chunks are parsed by the threads of the pool
+        context.setThreadingPolicy(new Synchroniser());
+        final ResourceResolverFactory resourceResolverFactory = context.mock(ResourceResolverFactory.class);
+        final ResourceResolver resourceResolver = context.mock(ResourceResolver.class);
+        context.checking(new Expectations() {{
+            allowing(resourceResolverFactory).getServiceResourceResolver(DynamicComponentSetupService.SETUP_AUTHENTICATION_INFO);
+            will(returnValue(resourceResolver));
+            // Unresolvable Super Types are only logged
+            allowing(resourceResolver).getResource(with(any(String.class))); will(returnValue(null));
+            allowing(resourceResolver).close();
+        }});
+        DynamicComponentDefinitionTask.Context setup = new DynamicComponentDefinitionTask.Context(
+            resourceResolverFactory, "Test", "cq:Component",
+            Collections.<String, List<DynamicComponentProperty>>emptyMap(),
+            Collections.<String, List<DynamicComponentProperty>>emptyMap()
+        );
+        String[] entries = {"", "button=Button|core/components/button", "   ", null, "text=Text|core/components/text", "\t"};
+        List<DynamicComponentNode> components;
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            components = pool.invoke(new DynamicComponentDefinitionTask(setup, entries, 2));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(2, components.size());
+        assertEquals("button", components.get(0).getName());
+        assertEquals("text", components.get(1).getName());
+    }
+
+    @Test
+    public void testDefaultConfiguration() throws Exception {
+        // A default that cannot be parsed fails the setup of a fresh installation
+        String[] defaults = (String[]) DynamicComponentSetupService.Configuration.class
+            .getMethod("dynamic_component_names").getDefaultValue();
+        assertEquals(1, defaults.length);
+        DynamicComponentProperty property = parser.parse(defaults[0], "Dynamic Component");
+        assertEquals("button", property.getComponent());
+        assertEquals("Button-default", property.getName());
+        assertEquals("core/wcm/components/button/v1/button", property.getValue());
+    }
+
+    private void assertInvalid(String entry, int column, String message) {
+        try {
+            parser.parse(entry, "Test Entry");
+            fail("Entry should be invalid: " + entry);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Test Entry is invalid at column " + column + ": " + message));
+        }
+    }
+}
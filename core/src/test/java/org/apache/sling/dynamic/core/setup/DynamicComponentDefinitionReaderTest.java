@@ -0,0 +1,139 @@
+package org.apache.sling.dynamic.core.setup;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The CSV file of the Dynamic Component Definitions is written by hand or exported from a
+ * spreadsheet so quoting, line ends and blank lines vary. Errors must point to the line
+ * of the record that is invalid.
+ */
+public class DynamicComponentDefinitionReaderTest {
+
+    private static final String GROUP = "Test";
+    private static final String PRIMARY_TYPE = "cq:Component";
+
+    @Test
+    public void testRecords() {
+        List<DynamicComponentNode> components = read(
+            "# Components\n" +
+            "component,button,Button,core/components/button\n" +
+            "property,button,variants,primary,secondary\n" +
+            "property,button,icon,arrow\n" +
+            "ref,button,link,/apps/test/links\n" +
+            "component, teaser , Teaser ,core/components/teaser\n"
+        );
+        assertEquals(2, components.size());
+        DynamicComponentNode button = components.get(0);
+        assertEquals("button", button.getName());
+        assertEquals("Button", button.getProperties().get("jcr:title"));
+        assertEquals("core/components/button", button.getProperties().get("sling:resourceSuperType"));
+        assertEquals(GROUP, button.getProperties().get("componentGroup"));
+        assertEquals(PRIMARY_TYPE, button.getPrimaryType());
+        assertArrayEquals(new String[] {"primary", "secondary"}, (String[]) button.getProperties().get("variants"));
+        assertEquals("arrow", button.getProperties().get("icon"));
+        assertEquals(1, button.getChildren().size());
+        assertEquals("link", button.getChildren().get(0).getName());
+        assertEquals("/apps/test/links", button.getChildren().get(0).getProperties().get("ref"));
+        // Unquoted fields are trimmed
+        assertEquals("teaser", components.get(1).getName());
+        assertEquals("Teaser", components.get(1).getProperties().get("jcr:title"));
+    }
+
+    @Test
+    public void testQuotedFields() {
+        List<DynamicComponentNode> components = read(
+            "component,button,\"Button, \"\"Primary\"\"\",core/components/button\n" +
+            "property,button,description,\"First line\nSecond line\" , \" padded \"\n" +
+            "component,teaser,\"\",core/components/teaser\n"
+        );
+        assertEquals(2, components.size());
+        DynamicComponentNode button = components.get(0);
+        assertEquals("Button, \"Primary\"", button.getProperties().get("jcr:title"));
+        // Quoted fields keep their blanks and line breaks
+        assertArrayEquals(new String[] {"First line\nSecond line", " padded "}, (String[]) button.getProperties().get("description"));
+        assertEquals("", components.get(1).getProperties().get("jcr:title"));
+    }
+
+    @Test
+    public void testLineEndsAndBlankLines() {
+        List<DynamicComponentNode> components = read(
+            "component,button,Button,core/components/button\r\n" +
+            "\r\n" +
+            "   \r\n" +
+            "\t\n" +
+            "property,button,icon,arrow\r" +
+            "  # indented comment\n" +
+            "component,teaser,Teaser,core/components/teaser\r\n" +
+            "  "
+        );
+        assertEquals(2, components.size());
+        assertEquals("arrow", components.get(0).getProperties().get("icon"));
+        assertEquals("core/components/teaser", components.get(1).getProperties().get("sling:resourceSuperType"));
+    }
+
+    @Test
+    public void testEmptyFile() {
+        assertTrue(read("").isEmpty());
+        assertTrue(read("# Nothing\n\n  \r\n").isEmpty());
+    }
+
+    @Test
+    public void testErrorLineNumbers() {
+        assertInvalid("component,button,Button,core/components/button\n\nbutton,icon,arrow\n", 3, "Unknown record kind");
+        assertInvalid("# Header\r\ncomponent,button,Button\r\n", 2, "invalid number of fields");
+        // The multi-line field counts its lines and the error points to the start of the record
+        assertInvalid(
+            "component,button,\"Multi\nline\",core/components/button\nproperty,teaser,icon,arrow\n", 3, "must follow"
+        );
+        assertInvalid("component,,Button,core/components/button\n", 1, "name is empty");
+        assertInvalid("component,button,\"Button\" x,core/components/button\n", 1, "after a quoted field");
+        assertInvalid("\ncomponent,button,\"Button,core/components/button\n", 2, "not closed");
+    }
+
+    @Test
+    public void testIteratorContract() {
+        DynamicComponentDefinitionReader reader = new DynamicComponentDefinitionReader(
+            new StringReader("component,button,Button,core/components/button\n"), GROUP, PRIMARY_TYPE
+        );
+        assertTrue(reader.hasNext());
+        assertTrue(reader.hasNext());
+        assertEquals("button", reader.next().getName());
+        assertFalse(reader.hasNext());
+        try {
+            reader.next();
+            fail("No more Dynamic Components");
+        } catch (NoSuchElementException e) {
+            // Expected
+        }
+    }
+
+    private static void assertInvalid(String content, int line, String message) {
+        try {
+            read(content);
+            fail("Definition should be invalid: " + content);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("at line " + line + ":"));
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static List<DynamicComponentNode> read(String content) {
+        List<DynamicComponentNode> answer = new ArrayList<>();
+        DynamicComponentDefinitionReader reader = new DynamicComponentDefinitionReader(new StringReader(content), GROUP, PRIMARY_TYPE);
+        while(reader.hasNext()) {
+            answer.add(reader.next());
+        }
+        return answer;
+    }
+}
@@ -0,0 +1,227 @@
+package org.apache.sling.dynamic.core.setup;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.ModifiableValueMapDecorator;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Reconciler must only write the Nodes that differ from their Desired State so that an
+ * unchanged configuration does not touch the repository on every activation.
+ */
+public class DynamicComponentReconcilerTest {
+
+    private static final String FOLDER_PATH = "/conf/test/settings/dynamic";
+    private static final String GROUP = "Test";
+    private static final String COMPONENT = "cq:Component";
+    private static final String UNSTRUCTURED = "nt:unstructured";
+
+    private final Mockery context = new Mockery();
+    /** Names of the mocked Resources as a mock cannot be called while expectations are set **/
+    private final Map<Resource, String> names = new HashMap<>();
+    /** Deleted Resources are no longer returned as a child like in the transient space **/
+    private final Set<Resource> deleted = new HashSet<>();
+    private ResourceResolver resourceResolver;
+
+    @Before
+    public void setup() {
+        resourceResolver = context.mock(ResourceResolver.class);
+    }
+
+    @Test
+    public void testOnlyDifferencesAreWritten() throws Exception {
+        String[] variants = {"primary", "secondary"};
+        Map<String, Object> linkProperties = properties(UNSTRUCTURED, "jcr:title", "link", "ref", "/apps/test/old");
+        final Resource link = createResource(FOLDER_PATH + "/button/link", linkProperties);
+        final Resource obsoleteRef = createResource(FOLDER_PATH + "/button/obsolete", properties(UNSTRUCTURED));
+        Map<String, Object> buttonProperties = properties(
+            COMPONENT, "jcr:title", "Old Button", "componentGroup", GROUP, "sling:resourceSuperType", "core/components/button",
+            "variants", variants, "removed", "value", "jcr:created", "yesterday"
+        );
+        Resource button = createResource(FOLDER_PATH + "/button", buttonProperties, link, obsoleteRef);
+        Map<String, Object> textProperties = properties(
+            COMPONENT, "jcr:title", "Text", "componentGroup", GROUP, "sling:resourceSuperType", "core/components/text"
+        );
+        Resource text = createResource(FOLDER_PATH + "/text", textProperties);
+        final Resource teaser = createResource(FOLDER_PATH + "/teaser", properties(UNSTRUCTURED, "jcr:title", "Teaser"));
+        final Resource old = createResource(FOLDER_PATH + "/old", properties(COMPONENT));
+        final Resource folder = createResource(FOLDER_PATH, properties("sling:Folder"), button, text, teaser, old);
+        final DynamicComponentNode image = component("image", "Image", "core/components/image");
+        final DynamicComponentNode replacedTeaser = component("teaser", "Teaser", "core/components/teaser");
+        context.checking(new Expectations() {{
+            oneOf(resourceResolver).delete(obsoleteRef);
+            // The Primary Type cannot be changed so the Node is replaced
+            oneOf(resourceResolver).delete(teaser);
+            oneOf(resourceResolver).create(folder, "teaser", replacedTeaser.getProperties());
+            will(returnValue(createResource(FOLDER_PATH + "/teaser", replacedTeaser.getProperties())));
+            oneOf(resourceResolver).create(folder, "image", image.getProperties());
+            will(returnValue(createResource(FOLDER_PATH + "/image", image.getProperties())));
+            oneOf(resourceResolver).delete(old);
+            allowing(resourceResolver).hasChanges(); will(returnValue(true));
+            oneOf(resourceResolver).commit();
+        }});
+
+        DynamicComponentReconciler reconciler = new DynamicComponentReconciler(resourceResolver);
+        reconciler.start(folder, false);
+        reconciler.add(
+            component("button", "Button", "core/components/button")
+                .setProperty("variants", Arrays.asList("primary", "secondary"))
+                .addChild(DynamicComponentNode.createRef("link", "/apps/test/new"))
+        );
+        reconciler.add(component("text", "Text", "core/components/text"));
+        reconciler.add(replacedTeaser);
+        reconciler.add(image);
+        assertTrue(reconciler.finish());
+        context.assertIsSatisfied();
+
+        assertEquals("Button", buttonProperties.get("jcr:title"));
+        // Equal Multi-Value Properties are not written again
+        assertSame(variants, buttonProperties.get("variants"));
+        assertFalse("Properties no longer configured are removed", buttonProperties.containsKey("removed"));
+        assertEquals("System Properties are kept", "yesterday", buttonProperties.get("jcr:created"));
+        assertEquals("/apps/test/new", linkProperties.get("ref"));
+        assertEquals(2, reconciler.getCreated());
+        assertEquals(2, reconciler.getUpdated());
+        assertEquals(3, reconciler.getDeleted());
+    }
+
+    @Test
+    public void testNothingIsWrittenIfUpToDate() throws Exception {
+        Map<String, Object> buttonProperties = properties(
+            COMPONENT, "jcr:title", "Button", "componentGroup", GROUP, "sling:resourceSuperType", "core/components/button",
+            "variants", new String[] {"primary", "secondary"}
+        );
+        Resource folder = createResource(FOLDER_PATH, properties("sling:Folder"), createResource(FOLDER_PATH + "/button", buttonProperties));
+        context.checking(new Expectations() {{
+            allowing(resourceResolver).hasChanges(); will(returnValue(false));
+            never(resourceResolver).commit();
+        }});
+
+        DynamicComponentReconciler reconciler = new DynamicComponentReconciler(resourceResolver);
+        reconciler.start(folder, false);
+        reconciler.add(
+            component("button", "Button", "core/components/button").setProperty("variants", Arrays.asList("primary", "secondary"))
+        );
+        assertFalse(reconciler.finish());
+        context.assertIsSatisfied();
+        assertEquals(0, reconciler.getUpdated());
+    }
+
+    @Test
+    public void testChangesAreCommittedInBatches() throws Exception {
+        final Resource folder = createResource(FOLDER_PATH, properties("sling:Folder"));
+        context.checking(new Expectations() {{
+            exactly(5).of(resourceResolver).create(with(same(folder)), with(any(String.class)), with(any(Map.class)));
+            will(returnValue(createResource(FOLDER_PATH + "/created", properties(COMPONENT))));
+            allowing(resourceResolver).hasChanges(); will(returnValue(true));
+            // After the second and fourth Node and the rest in finish
+            exactly(3).of(resourceResolver).commit();
+        }});
+
+        DynamicComponentReconciler reconciler = new DynamicComponentReconciler(resourceResolver, 2);
+        reconciler.start(folder, false);
+        for(int i = 0; i < 5; i++) {
+            reconciler.add(component("component-" + i, "Component " + i, "core/components/text"));
+        }
+        assertTrue(reconciler.finish());
+        context.assertIsSatisfied();
+        assertEquals(5, reconciler.getCreated());
+    }
+
+    @Test
+    public void testReplaceIsCommittedOnce() throws Exception {
+        final Resource existing = createResource(FOLDER_PATH + "/button", properties(COMPONENT, "jcr:title", "Button"));
+        final Resource folder = createResource(FOLDER_PATH, properties("sling:Folder"), existing);
+        context.checking(new Expectations() {{
+            oneOf(resourceResolver).delete(existing); will(markDeleted(existing));
+            exactly(3).of(resourceResolver).create(with(same(folder)), with(any(String.class)), with(any(Map.class)));
+            will(returnValue(createResource(FOLDER_PATH + "/created", properties(COMPONENT))));
+            allowing(resourceResolver).hasChanges(); will(returnValue(true));
+            // The Folder must never be seen without the deleted Nodes being created again
+            oneOf(resourceResolver).commit();
+        }});
+
+        DynamicComponentReconciler reconciler = new DynamicComponentReconciler(resourceResolver, 1);
+        reconciler.start(folder, true);
+        reconciler.add(component("button", "Button", "core/components/button"));
+        reconciler.add(component("text", "Text", "core/components/text"));
+        reconciler.add(component("image", "Image", "core/components/image"));
+        assertTrue(reconciler.finish());
+        context.assertIsSatisfied();
+        assertEquals(1, reconciler.getDeleted());
+        assertEquals(3, reconciler.getCreated());
+    }
+
+    private Action markDeleted(final Resource resource) {
+        return new CustomAction("delete") {
+            @Override
+            public Object invoke(Invocation invocation) {
+                deleted.add(resource);
+                return null;
+            }
+        };
+    }
+
+    private static DynamicComponentNode component(String name, String title, String superType) {
+        return DynamicComponentNode.createComponent(name, title, superType, GROUP, COMPONENT);
+    }
+
+    /** @return Mutable Properties with the given Primary Type followed by pairs of name and value **/
+    private static Map<String, Object> properties(String primaryType, Object... namesAndValues) {
+        Map<String, Object> answer = new HashMap<>();
+        answer.put("jcr:primaryType", primaryType);
+        for(int i = 0; i < namesAndValues.length; i += 2) {
+            answer.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return answer;
+    }
+
+    /**
+     * @param properties Properties of the Resource. Changes through its Modifiable Value Map are written to them
+     * @return Mocked Resource with the given children
+     */
+    private Resource createResource(final String path, final Map<String, Object> properties, final Resource... children) {
+        final Resource answer = context.mock(Resource.class, path + "-" + System.identityHashCode(properties));
+        final List<Resource> childList = Arrays.asList(children);
+        final String name = path.substring(path.lastIndexOf('/') + 1);
+        names.put(answer, name);
+        context.checking(new Expectations() {{
+            allowing(answer).getName(); will(returnValue(name));
+            allowing(answer).getPath(); will(returnValue(path));
+            allowing(answer).getValueMap(); will(returnValue(new ValueMapDecorator(properties)));
+            allowing(answer).adaptTo(ModifiableValueMap.class); will(returnValue(new ModifiableValueMapDecorator(properties)));
+            allowing(answer).listChildren(); will(returnIterator(childList));
+            for(final Resource child: childList) {
+                allowing(answer).getChild(names.get(child));
+                will(new CustomAction("get child") {
+                    @Override
+                    public Object invoke(Invocation invocation) {
+                        return deleted.contains(child) ? null : child;
+                    }
+                });
+            }
+            allowing(answer).getChild(with(any(String.class))); will(returnValue(null));
+        }});
+        return answer;
+    }
+}
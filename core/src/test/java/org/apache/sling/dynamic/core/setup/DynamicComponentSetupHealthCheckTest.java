@@ -0,0 +1,62 @@
+package org.apache.sling.dynamic.core.setup;
+
+import org.apache.felix.hc.api.Result;
+import org.apache.felix.hc.api.ResultLog;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Traffic is gated by the Health Check so a Setup that is not done must not report OK.
+ */
+public class DynamicComponentSetupHealthCheckTest {
+
+    private final Mockery context = new Mockery();
+    private final DynamicComponentSetupHealthCheck healthCheck = new DynamicComponentSetupHealthCheck();
+
+    @Test
+    public void testStatusFollowsTheSetups() {
+        assertEquals(Result.Status.OK, healthCheck.execute().getStatus());
+        DynamicComponentSetup ready = bind(DynamicComponentSetup.State.READY, null, "/apps/ready");
+        assertEquals(Result.Status.OK, healthCheck.execute().getStatus());
+        DynamicComponentSetup running = bind(DynamicComponentSetup.State.RUNNING, null, "/apps/running");
+        assertEquals(Result.Status.TEMPORARILY_UNAVAILABLE, healthCheck.execute().getStatus());
+        healthCheck.unbindSetup(running);
+        healthCheck.unbindSetup(ready);
+        assertEquals(Result.Status.OK, healthCheck.execute().getStatus());
+    }
+
+    @Test
+    public void testFailureIsReported() {
+        IllegalStateException failure = new IllegalStateException("Cannot Access Resource Resolver");
+        bind(DynamicComponentSetup.State.PENDING, null, "/apps/pending");
+        bind(DynamicComponentSetup.State.FAILED, failure, "/apps/failed");
+        Result result = healthCheck.execute();
+        assertEquals(Result.Status.CRITICAL, result.getStatus());
+        for(ResultLog.Entry entry: result) {
+            if(entry.getStatus() == Result.Status.CRITICAL) {
+                assertSame(failure, entry.getException());
+                assertEquals(
+                    "Dynamic Component Setup of: '/apps/failed' failed: " + failure, entry.getMessage()
+                );
+            }
+        }
+    }
+
+    private DynamicComponentSetup bind(final DynamicComponentSetup.State state, final Throwable failure, String targetPath) {
+        final DynamicComponentSetup answer = context.mock(DynamicComponentSetup.class, targetPath);
+        context.checking(new Expectations() {{
+            allowing(answer).getState(); will(returnValue(state));
+            allowing(answer).getFailure(); will(returnValue(failure));
+        }});
+        healthCheck.bindSetup(
+            answer, Collections.<String, Object>singletonMap(DynamicComponentSetupHealthCheck.TARGET_PATH_PROPERTY, targetPath)
+        );
+        return answer;
+    }
+}
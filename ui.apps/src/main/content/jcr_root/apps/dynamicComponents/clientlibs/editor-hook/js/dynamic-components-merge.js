@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/*
+ * Client Merge of the Dynamic Components: the Dynamic Components are loaded from the
+ * Dynamic Component List Servlet and added to the Components List when the Page Editor
+ * receives it. The Components List request is marked so that the Dynamic Component
+ * Filter passes it through untouched.
+ *
+ * Until the Dynamic Components are loaded (or if the Client Merge is disabled and the
+ * servlet answers with a 404) the request is not marked and the Filter splices them in.
+ */
+(function ($, Granite) {
+    'use strict';
+
+    var COMPONENTS_LIST = /\/libs\/wcm\/core\/content\/components(\.[^\/?]*)?\.json/;
+    var DYNAMIC_COMPONENTS = '/bin/dynamic/components.json';
+    var CLIENT_MERGE_HEADER = 'X-Dynamic-Components';
+    var CLIENT_MERGE = 'merge';
+
+    /* Dynamic Components by their Resource Type or null if not (yet) available */
+    var dynamicComponents = null;
+
+    /* Revalidated with the Entity Tag by the browser so an unchanged list costs a 304 only */
+    function load() {
+        $.ajax({
+            url: Granite.HTTP.externalize(DYNAMIC_COMPONENTS),
+            dataType: 'json',
+            cache: true
+        }).done(function (data) {
+            dynamicComponents = data;
+        }).fail(function () {
+            dynamicComponents = null;
+        });
+    }
+
+    $.ajaxPrefilter(function (options) {
+        if (dynamicComponents === null || !COMPONENTS_LIST.test(options.url)) {
+            return;
+        }
+        // Only a JSon response can be merged
+        if (options.dataTypes && options.dataTypes[0] !== 'json' && options.dataTypes[0] !== '*') {
+            return;
+        }
+        var merged = dynamicComponents;
+        var parse = (options.converters && options.converters['text json']) || JSON.parse;
+        options.headers = $.extend({}, options.headers);
+        options.headers[CLIENT_MERGE_HEADER] = CLIENT_MERGE;
+        options.converters = $.extend({}, options.converters, {
+            'text json': function (text) {
+                // Same as the splice: a Dynamic Component replaces an upstream one with the same Resource Type
+                return $.extend(parse(text), merged);
+            }
+        });
+        // Pick up changes for the next Components List
+        load();
+    });
+
+    load();
+}(jQuery, Granite));